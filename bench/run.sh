@@ -0,0 +1,42 @@
+#!/usr/bin/env bash
+# ──────────────────────────────────────────────────────────────────────────────
+# run.sh — Throughput / latency baselines against a local Postgres
+#
+# Starts the project's own Postgres image (same extensions + init.sql as the app),
+# then runs a benchmark with the "bench" profile. The first argument picks it
+# (queue → QueueBenchmark, cache → CacheBenchmark); the rest are passed through, e.g.:
+#
+#   bench/run.sh queue --bench.producers=4 --bench.consumers=16 --bench.messages=500000
+#   bench/run.sh queue --bench.batch-size=100
+#   bench/run.sh queue --bench.scenario=delayed --bench.messages=10000000 --bench.batch-size=1000
+#   bench/run.sh queue --bench.scenario=fifo --bench.groups=10000 --bench.consumers=64 --bench.batch-size=100
+#   bench/run.sh cache --bench.keys=100000
+#
+# The benchmarks live in src/bench and are only compiled with the "bench" Maven profile,
+# so they never ship in the application jar.
+# ──────────────────────────────────────────────────────────────────────────────
+set -euo pipefail
+cd "$(dirname "$0")/.."
+
+TARGET="${1:-queue}"
+shift || true
+
+echo "▸ Starting Postgres..."
+docker compose up --build -d postgres
+
+SECONDS_WAITED=0
+MAX_WAIT=60
+until docker inspect --format='{{.State.Health.Status}}' just-use-postgres-db 2>/dev/null | grep -q "healthy"; do
+    sleep 2
+    SECONDS_WAITED=$((SECONDS_WAITED + 2))
+    if [ $SECONDS_WAITED -ge $MAX_WAIT ]; then
+        echo "✗ Postgres did not become healthy within ${MAX_WAIT}s. Check: docker compose logs postgres"
+        exit 1
+    fi
+done
+echo "  ✓ Postgres is healthy"
+
+echo "▸ Running ${TARGET} benchmark..."
+./mvnw -q -Pbench spring-boot:run \
+    -Dspring-boot.run.profiles=bench \
+    -Dspring-boot.run.arguments="--bench.target=${TARGET} $*"
@@ -137,14 +137,50 @@ CREATE TABLE IF NOT EXISTS geo_locations (
 CREATE INDEX IF NOT EXISTS idx_geo_locations_coordinates
     ON geo_locations USING gist(coordinates);
 
+-- TABLESAMPLE SYSTEM_ROWS(n): capacity eviction samples a fixed number of rows from a few
+-- random pages instead of scanning a whole partition (contrib, ships with Postgres)
+CREATE EXTENSION IF NOT EXISTS tsm_system_rows;
+
 -- CACHE TABLE (replaces Redis)
 -- UNLOGGED = no WAL writes = in-memory speed. Data lost on crash (same as Redis).
-CREATE UNLOGGED TABLE IF NOT EXISTS cache_entries (
+-- Hash-partitioned by key: capacity eviction and autovacuum each work on one small
+-- partition at a time. The parent only routes rows (it cannot be UNLOGGED itself);
+-- every partition is UNLOGGED.
+-- A value is either JSONB (queryable) or opaque bytes (rendered fragments, protobufs...):
+-- bytes skip the JSON parse on write and the re-serialization on read, and may be
+-- compressed by the app (codec = none | lz4 | zstd). STORAGE EXTERNAL stops TOAST from
+-- trying pglz on bytes that are already compressed.
+CREATE TABLE IF NOT EXISTS cache_entries (
     key VARCHAR(255) PRIMARY KEY,
-    value JSONB NOT NULL,
+    value JSONB,
+    value_bytes BYTEA STORAGE EXTERNAL,
+    codec VARCHAR(8),
     expires_at TIMESTAMPTZ,
-    created_at TIMESTAMPTZ DEFAULT NOW()
-);
+    created_at TIMESTAMPTZ DEFAULT NOW(),
+    load_ms INTEGER,  -- recompute cost recorded by getOrLoad, drives early refresh
+    last_accessed TIMESTAMPTZ DEFAULT NOW(),  -- LRU clock, flushed from the app in batches
+    hits BIGINT NOT NULL DEFAULT 0,           -- LFU counter, flushed from the app in batches
+    CHECK ((value IS NULL) <> (value_bytes IS NULL)),
+    CHECK ((codec IS NULL) = (value_bytes IS NULL))
+) PARTITION BY HASH (key);
+
+-- fillfactor 90 leaves room on each page so access-stat updates stay HOT (no index churn)
+CREATE UNLOGGED TABLE IF NOT EXISTS cache_entries_p0 PARTITION OF cache_entries
+    FOR VALUES WITH (MODULUS 8, REMAINDER 0) WITH (fillfactor = 90);
+CREATE UNLOGGED TABLE IF NOT EXISTS cache_entries_p1 PARTITION OF cache_entries
+    FOR VALUES WITH (MODULUS 8, REMAINDER 1) WITH (fillfactor = 90);
+CREATE UNLOGGED TABLE IF NOT EXISTS cache_entries_p2 PARTITION OF cache_entries
+    FOR VALUES WITH (MODULUS 8, REMAINDER 2) WITH (fillfactor = 90);
+CREATE UNLOGGED TABLE IF NOT EXISTS cache_entries_p3 PARTITION OF cache_entries
+    FOR VALUES WITH (MODULUS 8, REMAINDER 3) WITH (fillfactor = 90);
+CREATE UNLOGGED TABLE IF NOT EXISTS cache_entries_p4 PARTITION OF cache_entries
+    FOR VALUES WITH (MODULUS 8, REMAINDER 4) WITH (fillfactor = 90);
+CREATE UNLOGGED TABLE IF NOT EXISTS cache_entries_p5 PARTITION OF cache_entries
+    FOR VALUES WITH (MODULUS 8, REMAINDER 5) WITH (fillfactor = 90);
+CREATE UNLOGGED TABLE IF NOT EXISTS cache_entries_p6 PARTITION OF cache_entries
+    FOR VALUES WITH (MODULUS 8, REMAINDER 6) WITH (fillfactor = 90);
+CREATE UNLOGGED TABLE IF NOT EXISTS cache_entries_p7 PARTITION OF cache_entries
+    FOR VALUES WITH (MODULUS 8, REMAINDER 7) WITH (fillfactor = 90);
 
 CREATE INDEX IF NOT EXISTS idx_cache_entries_expires ON cache_entries(expires_at);
 
@@ -237,15 +273,207 @@ CREATE TABLE IF NOT EXISTS message_queue (
     id BIGSERIAL PRIMARY KEY,
     queue VARCHAR(100) NOT NULL,
     payload JSONB NOT NULL DEFAULT '{}',
-    status VARCHAR(20) NOT NULL DEFAULT 'pending',  -- pending, processing, completed, failed
+    status VARCHAR(20) NOT NULL DEFAULT 'pending',  -- pending, scheduled, processing, completed, failed
     attempts INT NOT NULL DEFAULT 0,
     created_at TIMESTAMPTZ DEFAULT NOW(),
-    processed_at TIMESTAMPTZ
+    processed_at TIMESTAMPTZ,
+    lease_until TIMESTAMPTZ,  -- visibility deadline while 'processing' (extended by heartbeats)
+    receipt UUID,             -- fencing token of the current claim; acks and heartbeats must present it
+    priority SMALLINT NOT NULL DEFAULT 0,  -- higher is dequeued first
+    visible_at TIMESTAMPTZ,   -- when a 'scheduled' message (delayed delivery / retry backoff) becomes claimable
+    group_key VARCHAR(255),   -- FIFO group (like SQS MessageGroupId); NULL = unordered
+    group_head BOOLEAN NOT NULL DEFAULT false,  -- oldest unfinished message of its group (maintained by trigger)
+    dead_lettered_from VARCHAR(100)  -- source queue, once moved to a dead-letter queue
 );
 
-CREATE INDEX IF NOT EXISTS idx_mq_queue_status ON message_queue(queue, status, created_at);
-CREATE INDEX IF NOT EXISTS idx_mq_processing ON message_queue(status, processed_at)
+-- Keyset browsing: WHERE queue [AND status] AND (created_at, id) > (?, ?) ORDER BY created_at, id
+-- seeks straight to the next page in one of these two indexes, however deep the backlog.
+CREATE INDEX IF NOT EXISTS idx_mq_queue_status ON message_queue(queue, status, created_at, id);
+CREATE INDEX IF NOT EXISTS idx_mq_browse ON message_queue(queue, created_at, id);
+-- Leased rows only: the requeue sweep is a range scan over expired deadlines
+CREATE INDEX IF NOT EXISTS idx_mq_lease ON message_queue(lease_until)
     WHERE status = 'processing';
+-- Delayed deliveries and retries waiting out their backoff live outside the dequeue
+-- index; a 1s promoter flips due rows to 'pending' with a range scan over this index.
+-- Millions of future messages therefore never slow down the dequeue path.
+CREATE INDEX IF NOT EXISTS idx_mq_scheduled ON message_queue(visible_at)
+    WHERE status = 'scheduled';
+-- Partial index over claimable rows only, in dequeue order (priority, then FIFO):
+-- the SKIP LOCKED dequeue reads the first N entries and never walks past completed
+-- history, delayed messages or grouped messages waiting behind their group's head.
+-- Including id keeps the lookup index-only.
+CREATE INDEX IF NOT EXISTS idx_mq_pending ON message_queue(queue, priority DESC, created_at, id)
+    WHERE status = 'pending' AND (group_key IS NULL OR group_head);
+-- Unfinished grouped messages: finds a group's next head when the current one finishes.
+CREATE INDEX IF NOT EXISTS idx_mq_group ON message_queue(queue, group_key, id)
+    WHERE group_key IS NOT NULL AND status IN ('pending', 'scheduled', 'processing');
+
+-- FIFO group heads. Only the oldest unfinished message of a group is claimable; instead of
+-- probing every candidate's group at dequeue time, the head is flagged when it is inserted
+-- into an idle group and handed on when it completes, fails for good or moves to a
+-- dead-letter queue. A per-group advisory lock serializes sends and hand-offs of one group,
+-- and each statement inside the trigger sees everything committed before the lock was granted.
+CREATE OR REPLACE FUNCTION message_queue_group_head() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'UPDATE' AND OLD.group_head THEN
+        PERFORM pg_advisory_xact_lock(1836152165, hashtext(OLD.queue || '/' || OLD.group_key)); -- 'mque'
+        UPDATE message_queue SET group_head = true
+        WHERE id = (SELECT id FROM message_queue
+                    WHERE queue = OLD.queue AND group_key = OLD.group_key AND id <> OLD.id
+                      AND status IN ('pending', 'scheduled', 'processing')
+                    ORDER BY id
+                    LIMIT 1);
+        NEW.group_head := false;
+    END IF;
+    IF NEW.status IN ('pending', 'scheduled', 'processing')
+            AND (TG_OP = 'INSERT' OR NEW.queue <> OLD.queue) THEN
+        PERFORM pg_advisory_xact_lock(1836152165, hashtext(NEW.queue || '/' || NEW.group_key));
+        NEW.group_head := NOT EXISTS (
+            SELECT 1 FROM message_queue
+            WHERE queue = NEW.queue AND group_key = NEW.group_key AND id <> NEW.id
+              AND status IN ('pending', 'scheduled', 'processing'));
+    END IF;
+    RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_mq_group_head_insert ON message_queue;
+CREATE TRIGGER trg_mq_group_head_insert
+    BEFORE INSERT ON message_queue
+    FOR EACH ROW WHEN (NEW.group_key IS NOT NULL)
+    EXECUTE FUNCTION message_queue_group_head();
+
+-- Claims, heartbeats and retries keep the head; only finishing or changing queue hands it on
+DROP TRIGGER IF EXISTS trg_mq_group_head_update ON message_queue;
+CREATE TRIGGER trg_mq_group_head_update
+    BEFORE UPDATE OF status, queue ON message_queue
+    FOR EACH ROW WHEN (OLD.group_key IS NOT NULL
+        AND (NEW.status IN ('completed', 'failed') OR NEW.queue <> OLD.queue))
+    EXECUTE FUNCTION message_queue_group_head();
+-- Lets the archiver find completed rows without scanning the whole table
+CREATE INDEX IF NOT EXISTS idx_mq_completed ON message_queue(processed_at)
+    WHERE status = 'completed';
+
+-- QUEUE DEPTH (message counts per queue and status, kept incrementally)
+-- Statement-level triggers append each statement's net change per (queue, status) to
+-- queue_depth_delta; they only INSERT, so no two transactions ever wait on the same row,
+-- however long a consumer keeps its claim transaction open. QueueService folds the deltas
+-- into queue_depth every 2 s, and readers add the not-yet-folded deltas, so stats read a few
+-- hundred rows instead of grouping the whole hot table. Both tables are written in the same
+-- transactions as message_queue, so the counts never drift from it.
+CREATE TABLE IF NOT EXISTS queue_depth (
+    queue VARCHAR(100) NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    count BIGINT NOT NULL DEFAULT 0,
+    PRIMARY KEY (queue, status)
+);
+
+CREATE TABLE IF NOT EXISTS queue_depth_delta (
+    queue VARCHAR(100) NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    delta BIGINT NOT NULL
+);
+
+-- Appended to and emptied every few seconds: vacuum it early, like message_queue
+ALTER TABLE queue_depth_delta SET (
+    autovacuum_vacuum_scale_factor = 0.01,
+    autovacuum_analyze_scale_factor = 0.02
+);
+
+CREATE OR REPLACE FUNCTION message_queue_depth() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO queue_depth_delta (queue, status, delta)
+        SELECT queue, status, COUNT(*)
+        FROM new_rows GROUP BY queue, status;
+    ELSIF TG_OP = 'DELETE' THEN
+        INSERT INTO queue_depth_delta (queue, status, delta)
+        SELECT queue, status, -COUNT(*)
+        FROM old_rows GROUP BY queue, status;
+    ELSE
+        -- Heartbeats and other updates that keep queue and status net to zero and write nothing
+        INSERT INTO queue_depth_delta (queue, status, delta)
+        SELECT queue, status, SUM(delta)
+        FROM (SELECT queue, status, 1 AS delta FROM new_rows
+              UNION ALL
+              SELECT queue, status, -1 FROM old_rows) c
+        GROUP BY queue, status HAVING SUM(delta) <> 0;
+    END IF;
+    RETURN NULL;
+END
+$$ LANGUAGE plpgsql;
+
+-- One trigger per event: transition tables cannot be shared across events
+DROP TRIGGER IF EXISTS trg_mq_depth_insert ON message_queue;
+CREATE TRIGGER trg_mq_depth_insert AFTER INSERT ON message_queue
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION message_queue_depth();
+DROP TRIGGER IF EXISTS trg_mq_depth_update ON message_queue;
+CREATE TRIGGER trg_mq_depth_update AFTER UPDATE ON message_queue
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION message_queue_depth();
+DROP TRIGGER IF EXISTS trg_mq_depth_delete ON message_queue;
+CREATE TRIGGER trg_mq_depth_delete AFTER DELETE ON message_queue
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION message_queue_depth();
+
+-- The hot table churns constantly (insert -> update -> delete), so vacuum it early
+-- instead of waiting for 20% of the table to be dead tuples.
+ALTER TABLE message_queue SET (
+    autovacuum_vacuum_scale_factor = 0.01,
+    autovacuum_analyze_scale_factor = 0.02
+);
+
+-- QUEUE SETTINGS (per-queue attributes, like SQS SetQueueAttributes)
+-- Queues without a row use the application defaults.
+CREATE TABLE IF NOT EXISTS queue_settings (
+    queue VARCHAR(100) PRIMARY KEY,
+    visibility_timeout_seconds INT NOT NULL DEFAULT 30 CHECK (visibility_timeout_seconds > 0),
+    max_attempts INT NOT NULL DEFAULT 5 CHECK (max_attempts > 0),          -- like SQS maxReceiveCount
+    backoff_base_seconds INT NOT NULL DEFAULT 5 CHECK (backoff_base_seconds > 0),
+    backoff_max_seconds INT NOT NULL DEFAULT 900 CHECK (backoff_max_seconds > 0),
+    dead_letter_queue VARCHAR(100),                                        -- NULL = '<queue>.dlq'
+    updated_at TIMESTAMPTZ DEFAULT NOW()
+);
+
+-- MESSAGE OUTBOX (transactional outbox, replaces Debezium outbox routing)
+-- Written inside the caller's transaction together with domain rows; a relay moves
+-- committed rows to message_queue in batches. Rows only live here for milliseconds.
+CREATE TABLE IF NOT EXISTS message_outbox (
+    id BIGSERIAL PRIMARY KEY,
+    queue VARCHAR(100) NOT NULL,
+    payload JSONB NOT NULL DEFAULT '{}',
+    priority SMALLINT NOT NULL DEFAULT 0,
+    group_key VARCHAR(255),
+    created_at TIMESTAMPTZ DEFAULT NOW()
+);
+
+ALTER TABLE message_outbox SET (
+    autovacuum_vacuum_scale_factor = 0.01,
+    autovacuum_analyze_scale_factor = 0.02
+);
+
+-- MESSAGE QUEUE ARCHIVE (completed messages, partitioned by day)
+-- Completed rows are moved here in batches to keep message_queue small.
+-- Retention = DROP a whole partition (instant) instead of DELETE + vacuum.
+-- Daily partitions are created ahead of time by QueueArchiveService.
+CREATE TABLE IF NOT EXISTS message_queue_archive (
+    id BIGINT NOT NULL,
+    queue VARCHAR(100) NOT NULL,
+    payload JSONB NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    attempts INT NOT NULL,
+    priority SMALLINT NOT NULL DEFAULT 0,
+    group_key VARCHAR(255),
+    dead_lettered_from VARCHAR(100),
+    created_at TIMESTAMPTZ,
+    processed_at TIMESTAMPTZ,
+    archived_at TIMESTAMPTZ NOT NULL DEFAULT NOW()
+) PARTITION BY RANGE (archived_at);
+
+CREATE TABLE IF NOT EXISTS message_queue_archive_default PARTITION OF message_queue_archive DEFAULT;
+
+CREATE INDEX IF NOT EXISTS idx_mq_archive_queue ON message_queue_archive(queue, archived_at);
 
 -- CRON JOBS TABLE (replaces external cron / Airflow)
 -- Stores job definitions; in production use pg_cron for native cron scheduling.
@@ -360,10 +588,11 @@ INSERT INTO message_queue (queue, payload, status) VALUES
 ('data-pipeline', '{"task":"import_csv","file":"users_2026.csv","rows":50000}', 'pending'),
 ('data-pipeline', '{"task":"generate_report","type":"monthly","month":"2026-01"}', 'pending');
 
--- Seed cron jobs (pg_cron equivalent)
+-- Seed cron jobs (pg_cron equivalent). requeue-stale-messages clears the receipt and lease
+-- like QueueRepository.requeueStale, so the worker whose lease lapsed can no longer ack.
 INSERT INTO cron_jobs (job_name, cron_expression, sql_command, status) VALUES
-('cleanup-expired-cache', '0 * * * *', 'DELETE FROM cache_entries WHERE expires_at < NOW()', 'scheduled'),
-('requeue-stale-messages', '*/5 * * * *', 'UPDATE message_queue SET status = ''pending'', processed_at = NULL WHERE status = ''processing'' AND processed_at < NOW() - interval ''30 seconds''', 'scheduled'),
+('cleanup-expired-cache', '0 * * * *', 'DELETE FROM cache_entries WHERE key IN (SELECT key FROM cache_entries WHERE expires_at < NOW() ORDER BY expires_at LIMIT 10000)', 'scheduled'),
+('requeue-stale-messages', '*/5 * * * *', 'UPDATE message_queue SET status = ''pending'', processed_at = NULL, lease_until = NULL, receipt = NULL WHERE status = ''processing'' AND lease_until < NOW()', 'scheduled'),
 ('vacuum-analyze', '0 3 * * *', 'VACUUM ANALYZE', 'scheduled');
 
 -- Seed employees (org chart for graph traversal)
@@ -0,0 +1,189 @@
+package org.tobenamed.justusepostgres.bench;
+
+import org.tobenamed.justusepostgres.model.CacheWrite;
+import org.tobenamed.justusepostgres.repository.CacheRepository;
+import org.tobenamed.justusepostgres.service.CacheCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Cache benchmarks driven through {@link CacheRepository} (no near cache) against a real Postgres.
+ *
+ * <pre>
+ * bench/run.sh cache --bench.keys=100000 --bench.payload-bytes=256
+ * </pre>
+ *
+ * <h3>Multi-key operations</h3>
+ * Each batch size (1 to 1000) writes, reads and deletes the same {@code bench.keys} keys;
+ * the report shows microseconds per key, so the round-trip amortization is visible at a glance.
+ *
+ * <h3>Value storage</h3>
+ * SET/GET throughput for 1 KB, 64 KB and 1 MB values stored as JSONB versus {@code bytea}
+ * (uncompressed, LZ4, Zstd — encoding included in the timing), plus the stored size.
+ * Values are HTML-like text, so compression ratios are realistic for rendered fragments.
+ * <p>
+ * Keys are prefixed per run and deleted afterwards, so runs are repeatable.
+ */
+@Component
+@Profile("bench")
+@ConditionalOnProperty(name = "bench.target", havingValue = "cache")
+public class CacheBenchmark implements CommandLineRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheBenchmark.class);
+    private static final int[] BATCH_SIZES = {1, 10, 100, 1000};
+    private static final Duration TTL = Duration.ofMinutes(10);
+    private static final int[] VALUE_SIZES = {1024, 64 * 1024, 1024 * 1024};
+    private static final String[] VALUE_MODES = {"jsonb", "bytea", "bytea+lz4", "bytea+zstd"};
+
+    private final CacheRepository repo;
+    private final JdbcTemplate jdbc;
+    private final ConfigurableApplicationContext context;
+
+    @Value("${bench.keys:20000}")
+    private int keys;
+    @Value("${bench.payload-bytes:256}")
+    private int payloadBytes;
+    @Value("${bench.value-mb:64}")
+    private int valueMegabytes;  // data written per value size and mode
+
+    public CacheBenchmark(CacheRepository repo, JdbcTemplate jdbc, ConfigurableApplicationContext context) {
+        this.repo = repo;
+        this.jdbc = jdbc;
+        this.context = context;
+    }
+
+    @Override
+    public void run(String... args) {
+        String prefix = "bench-" + System.currentTimeMillis() + ":";
+        String value = "{\"pad\": \"" + "x".repeat(Math.max(0, payloadBytes - 12)) + "\"}";
+        log.info("Bench: cache keys={} payloadBytes={}", keys, payloadBytes);
+
+        log.info("=== Cache benchmark (µs per key) ===");
+        log.info("  {}  {}  {}  {}", pad("batch"), pad("mset"), pad("mget"), pad("mdel"));
+        for (int batchSize : BATCH_SIZES) {
+            List<List<String>> batches = batches(prefix + batchSize + ":", batchSize);
+
+            long t0 = System.nanoTime();
+            for (List<String> batch : batches) {
+                repo.mset(batch.stream().map(k -> new CacheWrite(k, value, TTL)).toList());
+            }
+            long t1 = System.nanoTime();
+            for (List<String> batch : batches) {
+                repo.mget(batch);
+            }
+            long t2 = System.nanoTime();
+            for (List<String> batch : batches) {
+                repo.mdel(batch);
+            }
+            long t3 = System.nanoTime();
+
+            log.info("  {}  {}  {}  {}", pad(String.valueOf(batchSize)),
+                pad(micros(t1 - t0)), pad(micros(t2 - t1)), pad(micros(t3 - t2)));
+        }
+        log.info("====================================");
+
+        benchmarkValueStorage(prefix);
+
+        int deleted = jdbc.update("DELETE FROM cache_entries WHERE key LIKE ?", prefix + "%");
+        log.info("Bench: cleaned up {} rows", deleted);
+        System.exit(SpringApplication.exit(context, () -> 0));
+    }
+
+    private void benchmarkValueStorage(String prefix) {
+        log.info("=== Cache value storage (ops/s, stored bytes) ===");
+        log.info("  {}  {}  {}  {}  {}", pad("size"), String.format("%-11s", "mode"), pad("set/s"), pad("get/s"), pad("stored"));
+        for (int size : VALUE_SIZES) {
+            String text = htmlLike(size);
+            String json = "{\"html\": \"" + text + "\"}";
+            byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+            int ops = Math.max(20, Math.min(5000, valueMegabytes * 1024 * 1024 / size));
+            for (String mode : VALUE_MODES) {
+                CacheCodec codec = switch (mode) {
+                    case "bytea+lz4" -> CacheCodec.LZ4;
+                    case "bytea+zstd" -> CacheCodec.ZSTD;
+                    default -> CacheCodec.NONE;
+                };
+                String keyPrefix = prefix + "v" + size + ":" + mode + ":";
+
+                long t0 = System.nanoTime();
+                for (int i = 0; i < ops; i++) {
+                    if (mode.equals("jsonb")) {
+                        repo.set(keyPrefix + i, json, TTL);
+                    } else {
+                        repo.setBytes(keyPrefix + i, codec.encode(raw), codec.id(), TTL);
+                    }
+                }
+                long t1 = System.nanoTime();
+                for (int i = 0; i < ops; i++) {
+                    if (mode.equals("jsonb")) {
+                        repo.get(keyPrefix + i);
+                    } else {
+                        repo.getBytes(keyPrefix + i).ifPresent(b -> codec.decode(b.data()));
+                    }
+                }
+                long t2 = System.nanoTime();
+                Long stored = jdbc.queryForObject(
+                    "SELECT COALESCE(pg_column_size(value), pg_column_size(value_bytes)) FROM cache_entries WHERE key = ?",
+                    Long.class, keyPrefix + 0);
+
+                log.info("  {}  {}  {}  {}  {}", pad(size / 1024 + " KB"), String.format("%-11s", mode),
+                    pad(String.valueOf(Math.round(ops / ((t1 - t0) / 1e9)))),
+                    pad(String.valueOf(Math.round(ops / ((t2 - t1) / 1e9)))),
+                    pad(String.valueOf(stored)));
+            }
+        }
+        log.info("=================================================");
+    }
+
+    /** Roughly {@code size} bytes of list markup with varying numbers, like a rendered page fragment. */
+    private static String htmlLike(int size) {
+        StringBuilder sb = new StringBuilder(size + 100);
+        Random rng = new Random(42);
+        int i = 0;
+        while (sb.length() < size) {
+            sb.append("<li class='item' data-id='").append(i++).append("'><a href='/p/")
+                .append(rng.nextInt(100_000)).append("'>Product ").append(rng.nextInt(1000))
+                .append("</a> <span class='price'>$").append(rng.nextInt(500)).append(".99</span></li>");
+        }
+        sb.setLength(size);
+        return sb.toString();
+    }
+
+    private List<List<String>> batches(String prefix, int batchSize) {
+        List<List<String>> batches = new ArrayList<>();
+        List<String> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < keys; i++) {
+            batch.add(prefix + i);
+            if (batch.size() == batchSize) {
+                batches.add(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private String micros(long nanos) {
+        return String.format("%.1f", nanos / 1e3 / keys);
+    }
+
+    private static String pad(String s) {
+        return String.format("%8s", s);
+    }
+}
@@ -0,0 +1,335 @@
+package org.tobenamed.justusepostgres.bench;
+
+import org.tobenamed.justusepostgres.model.QueueAck;
+import org.tobenamed.justusepostgres.model.QueueMessage;
+import org.tobenamed.justusepostgres.repository.QueueRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Queue load test: N producers and M consumers drive {@link QueueRepository} directly
+ * against a real Postgres, then the run prints a baseline report and the app exits.
+ *
+ * <pre>
+ * bench/run.sh queue --bench.producers=4 --bench.consumers=8 --bench.messages=200000
+ * bench/run.sh queue --bench.scenario=delayed --bench.messages=10000000 --bench.batch-size=1000 --bench.delay-seconds=120
+ * bench/run.sh queue --bench.scenario=fifo --bench.groups=10000 --bench.consumers=64 --bench.batch-size=100
+ * </pre>
+ *
+ * <h3>Scenarios</h3>
+ * <ul>
+ *   <li>{@code plain} — every message is deliverable as soon as it is sent</li>
+ *   <li>{@code delayed} — each send batch gets a random {@code deliverAt} within the next
+ *       {@code bench.delay-seconds}; a promoter thread in the benchmark moves due messages to
+ *       'pending' (the app's own schedulers are off in the bench profile)</li>
+ *   <li>{@code fifo} — messages are spread over {@code bench.groups} FIFO groups; consumers
+ *       check that each group is delivered in send order and count violations</li>
+ * </ul>
+ * Consumers back off exponentially (up to {@code bench.max-backoff-ms}) on empty receives
+ * instead of spinning, so idle consumers do not flood Postgres with empty claims.
+ *
+ * <h3>What is measured</h3>
+ * <ul>
+ *   <li>Enqueue / dequeue throughput (messages per second of wall time)</li>
+ *   <li>End-to-end latency p50/p99/p999 — from the moment a message became deliverable (the
+ *       producer's send call, or its {@code deliverAt} when delayed) to the consumer's completed
+ *       ack. Payloads carry {@code System.nanoTime()}, which is consistent across threads of
+ *       one JVM, so no clock skew</li>
+ *   <li>Send call latency p50/p99 — one round trip per call (or per batch)</li>
+ *   <li>Lock-wait time — backends sampled every 10 ms in {@code pg_stat_activity} with
+ *       {@code wait_event_type = 'Lock'}; samples x interval estimates total time spent waiting</li>
+ * </ul>
+ *
+ * Every run uses a fresh queue name and deletes its rows afterwards, so runs are repeatable
+ * against the same database.
+ */
+@Component
+@Profile("bench")
+@ConditionalOnProperty(name = "bench.target", havingValue = "queue", matchIfMissing = true)
+public class QueueBenchmark implements CommandLineRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueBenchmark.class);
+    private static final long LOCK_SAMPLE_MS = 10;
+    private static final int VISIBILITY_SECONDS = 30;
+    private static final int PROMOTE_BATCH_SIZE = 10_000;
+
+    private final QueueRepository repo;
+    private final JdbcTemplate jdbc;
+    private final ConfigurableApplicationContext context;
+
+    @Value("${bench.producers:4}")
+    private int producers;
+    @Value("${bench.consumers:8}")
+    private int consumers;
+    @Value("${bench.messages:100000}")
+    private int messages;
+    @Value("${bench.batch-size:1}")
+    private int batchSize;
+    @Value("${bench.payload-bytes:256}")
+    private int payloadBytes;
+    @Value("${bench.scenario:plain}")
+    private String scenario;
+    @Value("${bench.delay-seconds:60}")
+    private int delaySeconds;
+    @Value("${bench.groups:1000}")
+    private int groups;
+    @Value("${bench.max-backoff-ms:20}")
+    private int maxBackoffMs;
+
+    public QueueBenchmark(QueueRepository repo, JdbcTemplate jdbc, ConfigurableApplicationContext context) {
+        this.repo = repo;
+        this.jdbc = jdbc;
+        this.context = context;
+    }
+
+    @Override
+    public void run(String... args) throws Exception {
+        if (!List.of("plain", "delayed", "fifo").contains(scenario)) {
+            throw new IllegalArgumentException("bench.scenario must be plain, delayed or fifo");
+        }
+        if ("fifo".equals(scenario) && groups % producers != 0) {
+            throw new IllegalArgumentException("bench.groups must be a multiple of bench.producers");
+        }
+        String queue = "bench-" + System.currentTimeMillis();
+        log.info("Bench: scenario={} queue={} producers={} consumers={} messages={} batchSize={} payloadBytes={}",
+            scenario, queue, producers, consumers, messages, batchSize, payloadBytes);
+
+        long[] endToEnd = new long[messages];
+        AtomicInteger consumed = new AtomicInteger();
+        AtomicLong emptyReceives = new AtomicLong();
+        AtomicLong orderViolations = new AtomicLong();
+        AtomicLongArray lastSeq = new AtomicLongArray("fifo".equals(scenario) ? groups : 0);
+        for (int g = 0; g < lastSeq.length(); g++) {
+            lastSeq.set(g, -1);
+        }
+        List<Long> sendLatencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong lockSamples = new AtomicLong();
+        CountDownLatch producersDone = new CountDownLatch(producers);
+        CountDownLatch consumersDone = new CountDownLatch(consumers);
+        String padding = "x".repeat(Math.max(0, payloadBytes - 40));
+
+        Thread sampler = new Thread(() -> sampleLockWaits(lockSamples), "bench-lock-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+        Thread promoter = new Thread(() -> promote(consumed), "bench-promoter");
+        promoter.setDaemon(true);
+        if ("delayed".equals(scenario)) {
+            promoter.start();
+        }
+
+        long start = System.nanoTime();
+        AtomicLong producerEnd = new AtomicLong();
+        for (int p = 0; p < producers; p++) {
+            int share = messages / producers + (p < messages % producers ? 1 : 0);
+            int producer = p;
+            Thread t = new Thread(() -> {
+                try {
+                    produce(queue, producer, share, padding, sendLatencies);
+                } finally {
+                    producerEnd.accumulateAndGet(System.nanoTime(), Math::max);
+                    producersDone.countDown();
+                }
+            }, "bench-producer-" + p);
+            t.start();
+        }
+        for (int c = 0; c < consumers; c++) {
+            Thread t = new Thread(() -> {
+                try {
+                    consume(queue, endToEnd, consumed, emptyReceives, lastSeq, orderViolations);
+                } finally {
+                    consumersDone.countDown();
+                }
+            }, "bench-consumer-" + c);
+            t.start();
+        }
+        producersDone.await();
+        consumersDone.await();
+        long end = System.nanoTime();
+        sampler.interrupt();
+        promoter.interrupt();
+
+        report(start, producerEnd.get(), end, endToEnd, sendLatencies, lockSamples.get(),
+            emptyReceives.get(), orderViolations.get());
+        int deleted = jdbc.update("DELETE FROM message_queue WHERE queue = ?", queue);
+        log.info("Bench: cleaned up {} rows", deleted);
+        System.exit(SpringApplication.exit(context, () -> 0));
+    }
+
+    /**
+     * Send {@code count} messages in batches. In the fifo scenario each producer owns
+     * {@code groups / producers} groups and sends a whole batch to one group at a time,
+     * round-robin, numbering the messages of each group so consumers can check the order.
+     */
+    private void produce(String queue, int producer, int count, String padding, List<Long> sendLatencies) {
+        int groupsPerProducer = "fifo".equals(scenario) ? groups / producers : 0;
+        long[] nextSeq = new long[groupsPerProducer];
+        int sent = 0;
+        int round = 0;
+        while (sent < count) {
+            int n = Math.min(batchSize, count - sent);
+            long t0 = System.nanoTime();
+            Instant deliverAt = null;
+            long deliverableAt = t0;
+            if ("delayed".equals(scenario)) {
+                long delayNanos = ThreadLocalRandom.current().nextLong(TimeUnit.SECONDS.toNanos(Math.max(1, delaySeconds)));
+                deliverAt = Instant.now().plusNanos(delayNanos);
+                deliverableAt = t0 + delayNanos;
+            }
+            int group = -1;
+            String groupKey = null;
+            if (groupsPerProducer > 0) {
+                group = producer * groupsPerProducer + round++ % groupsPerProducer;
+                groupKey = "g-" + group;
+            }
+            List<String> batch = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                long seq = group >= 0 ? nextSeq[group - producer * groupsPerProducer]++ : 0;
+                batch.add(payload(deliverableAt, group, seq, padding));
+            }
+            if (n == 1) {
+                repo.send(queue, batch.get(0), 0, deliverAt, groupKey);
+            } else {
+                repo.sendBatch(queue, batch, 0, deliverAt, groupKey);
+            }
+            sendLatencies.add(System.nanoTime() - t0);
+            sent += n;
+        }
+    }
+
+    private void consume(String queue, long[] endToEnd, AtomicInteger consumed, AtomicLong emptyReceives,
+                         AtomicLongArray lastSeq, AtomicLong orderViolations) {
+        long backoffNanos = 0;
+        while (consumed.get() < messages) {
+            List<QueueMessage> claimed = repo.receiveBatch(queue, batchSize, VISIBILITY_SECONDS);
+            if (claimed.isEmpty()) {
+                // Exponential backoff: 50 µs doubling up to bench.max-backoff-ms, reset on the next hit
+                emptyReceives.incrementAndGet();
+                backoffNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(maxBackoffMs),
+                    backoffNanos == 0 ? TimeUnit.MICROSECONDS.toNanos(50) : backoffNanos * 2);
+                LockSupport.parkNanos(backoffNanos);
+                continue;
+            }
+            backoffNanos = 0;
+            if (lastSeq.length() > 0) {
+                for (QueueMessage m : claimed) {
+                    long seq = longField(m.payload(), "seq");
+                    if (lastSeq.getAndSet((int) longField(m.payload(), "group"), seq) >= seq) {
+                        orderViolations.incrementAndGet();
+                    }
+                }
+            }
+            if (claimed.size() == 1) {
+                repo.complete(claimed.get(0).id(), claimed.get(0).receipt());
+            } else {
+                repo.completeBatch(claimed.stream().map(m -> new QueueAck(m.id(), m.receipt())).toList());
+            }
+            long now = System.nanoTime();
+            for (QueueMessage m : claimed) {
+                int slot = consumed.getAndIncrement();
+                if (slot < endToEnd.length) {
+                    endToEnd[slot] = now - longField(m.payload(), "sentAt");
+                }
+            }
+        }
+    }
+
+    /** Stand-in for the app's promoter, which is off in the bench profile; backs off while nothing is due. */
+    private void promote(AtomicInteger consumed) {
+        while (!Thread.currentThread().isInterrupted() && consumed.get() < messages) {
+            int promoted = repo.promoteScheduled(PROMOTE_BATCH_SIZE).values().stream().mapToInt(Integer::intValue).sum();
+            if (promoted < PROMOTE_BATCH_SIZE) {
+                try {
+                    Thread.sleep(promoted == 0 ? 50 : 5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void sampleLockWaits(AtomicLong lockSamples) {
+        while (!Thread.currentThread().isInterrupted()) {
+            Long waiting = jdbc.queryForObject("""
+                SELECT COUNT(*) FROM pg_stat_activity
+                WHERE datname = current_database() AND wait_event_type = 'Lock'
+                """, Long.class);
+            lockSamples.addAndGet(waiting != null ? waiting : 0);
+            try {
+                Thread.sleep(LOCK_SAMPLE_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void report(long start, long producerEnd, long end, long[] endToEnd, List<Long> sendLatencies, long lockSamples,
+                        long emptyReceives, long orderViolations) {
+        double enqueueSeconds = (producerEnd - start) / 1e9;
+        double totalSeconds = (end - start) / 1e9;
+        long[] e2e = endToEnd.clone();
+        Arrays.sort(e2e);
+        long[] send = sendLatencies.stream().mapToLong(Long::longValue).sorted().toArray();
+
+        log.info("=== Queue benchmark ({}) ===", scenario);
+        log.info("  enqueue throughput : {} msg/s", Math.round(messages / enqueueSeconds));
+        log.info("  dequeue throughput : {} msg/s", Math.round(messages / totalSeconds));
+        log.info("  end-to-end latency : p50={} ms  p99={} ms  p999={} ms  max={} ms",
+            millis(percentile(e2e, 0.50)), millis(percentile(e2e, 0.99)),
+            millis(percentile(e2e, 0.999)), millis(e2e[e2e.length - 1]));
+        log.info("  send call latency  : p50={} ms  p99={} ms", millis(percentile(send, 0.50)), millis(percentile(send, 0.99)));
+        log.info("  lock wait (approx) : {} ms across all backends", lockSamples * LOCK_SAMPLE_MS);
+        log.info("  empty receives     : {}", emptyReceives);
+        if ("fifo".equals(scenario)) {
+            log.info("  FIFO violations    : {} across {} groups", orderViolations, groups);
+        }
+        log.info("=======================");
+    }
+
+    private static String payload(long sentAt, int group, long seq, String padding) {
+        return "{\"sentAt\": " + sentAt + ", \"group\": " + group + ", \"seq\": " + seq + ", \"pad\": \"" + padding + "\"}";
+    }
+
+    /** Postgres normalizes JSONB as {@code {"pad": "...", "seq": 1, "group": 2, "sentAt": 123}}; read a number back. */
+    private static long longField(String payload, String name) {
+        String key = "\"" + name + "\": ";
+        int i = payload.indexOf(key) + key.length();
+        int j = i;
+        while (j < payload.length() && (Character.isDigit(payload.charAt(j)) || payload.charAt(j) == '-')) {
+            j++;
+        }
+        return Long.parseLong(payload.substring(i, j));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+}
@@ -2,7 +2,6 @@ package org.tobenamed.justusepostgres;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Just Use Postgres — A single Spring Boot app demonstrating how PostgreSQL
@@ -19,7 +18,6 @@ import org.springframework.scheduling.annotation.EnableScheduling;
  * </table>
  */
 @SpringBootApplication
-@EnableScheduling
 public class JustUsePostgresApplication {
     public static void main(String[] args) {
         SpringApplication.run(JustUsePostgresApplication.class, args);
@@ -0,0 +1,73 @@
+package org.tobenamed.justusepostgres.config;
+
+import org.tobenamed.justusepostgres.service.CacheService;
+import org.tobenamed.justusepostgres.service.PostgresCacheManager;
+import org.tobenamed.justusepostgres.service.PostgresCacheManager.Region;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.jsontype.BasicPolymorphicTypeValidator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.interceptor.KeyGenerator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Enables {@code @Cacheable} backed by Postgres ({@link PostgresCacheManager}).
+ *
+ * <ul>
+ *   <li>Regions and their TTLs live here, like {@code RedisCacheConfiguration} per cache</li>
+ *   <li>{@code keyGenerator = "jsonKeyGenerator"} keys a method by its arguments as JSON, so
+ *       arrays such as a query vector produce a stable key (the default {@code SimpleKey}
+ *       would print {@code [F@1b6d3586}); other {@code @Cacheable}s keep Spring's default</li>
+ *   <li>Values are Smile (binary JSON) with type ids on non-final classes and records (so a
+ *       {@code List<HybridSearchResult>} comes back as records). Type ids are restricted to
+ *       this application's classes, {@code java.util} collections, {@code java.time}, boxed
+ *       primitives and arrays, so a tampered row cannot instantiate arbitrary JDK classes</li>
+ * </ul>
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    private static final Region DEFAULT_REGION = new Region(Duration.ofMinutes(10), true);
+    private static final Map<String, Region> REGIONS = Map.of(
+        "hybrid-search", new Region(Duration.ofMinutes(5), true),
+        "keyword-search", new Region(Duration.ofMinutes(5), true)
+    );
+
+    @Bean
+    public PostgresCacheManager postgresCacheManager(CacheService service, ObjectMapper objectMapper) {
+        ObjectMapper valueMapper = objectMapper.copyWith(new SmileFactory()).activateDefaultTyping(
+            BasicPolymorphicTypeValidator.builder()
+                .allowIfSubType("org.tobenamed.justusepostgres.")
+                .allowIfSubType("java.util.")
+                .allowIfSubType("java.time.")
+                .allowIfSubType(Long.class)
+                .allowIfSubType(Integer.class)
+                .allowIfSubType(Short.class)
+                .allowIfSubType(Double.class)
+                .allowIfSubType(Float.class)
+                .allowIfSubType(Boolean.class)
+                .allowIfSubTypeIsArray()
+                .build(),
+            ObjectMapper.DefaultTyping.NON_FINAL_AND_RECORDS,
+            JsonTypeInfo.As.PROPERTY);
+        return new PostgresCacheManager(REGIONS, DEFAULT_REGION, service, valueMapper);
+    }
+
+    @Bean
+    public KeyGenerator jsonKeyGenerator(ObjectMapper objectMapper) {
+        return (target, method, params) -> {
+            try {
+                return objectMapper.writeValueAsString(params);
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("Cache key is not serializable: " + e.getOriginalMessage(), e);
+            }
+        };
+    }
+}
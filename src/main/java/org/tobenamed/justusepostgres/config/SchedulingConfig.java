@@ -0,0 +1,18 @@
+package org.tobenamed.justusepostgres.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Turns on the {@code @Scheduled} background jobs: queue promotion, lease sweeps, stats,
+ * ack flushing, archiving, outbox relay and cache eviction.
+ *
+ * Set {@code scheduling.enabled=false} to run without them — the "bench" profile does, so
+ * load tests measure only the traffic they generate themselves.
+ */
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "scheduling.enabled", havingValue = "true", matchIfMissing = true)
+public class SchedulingConfig {
+}
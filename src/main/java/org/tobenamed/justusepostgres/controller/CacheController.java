@@ -1,15 +1,20 @@
 package org.tobenamed.justusepostgres.controller;
 
+import org.tobenamed.justusepostgres.model.CacheEntry;
+import org.tobenamed.justusepostgres.model.CacheWrite;
 import org.tobenamed.justusepostgres.service.CacheService;
+import com.fasterxml.jackson.databind.JsonNode;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.Duration;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -68,6 +73,137 @@ public class CacheController {
         return ResponseEntity.ok(Map.of("status", "OK"));
     }
 
+    /**
+     * GET /api/cache/{key}/bytes
+     * Like Redis: GET key — for a value stored with PUT /bytes, returned as raw bytes
+     */
+    @GetMapping(value = "/{key}/bytes", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @Operation(summary = "Get binary value", description = "Returns the raw bytes of a binary entry, decompressed; "
+        + "the storage codec is in the X-Cache-Codec header. 404 if expired/missing or stored as JSON.")
+    public ResponseEntity<byte[]> getBytes(@Parameter(description = "Cache key", example = "fragment:home") @PathVariable String key) {
+        return service.getBytes(key)
+            .map(blob -> ResponseEntity.ok().header("X-Cache-Codec", blob.codec()).body(blob.data()))
+            .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * PUT /api/cache/{key}/bytes?ttlSeconds=3600
+     * Body: raw bytes (application/octet-stream)
+     * Like Redis: SET key value EX 3600 — stored as bytea, no JSON parsing
+     */
+    @PutMapping(value = "/{key}/bytes", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @Operation(summary = "Set binary value", description = "Stores opaque bytes (HTML fragments, protobufs) in a bytea column, "
+        + "compressed with LZ4 or Zstd depending on the key prefix when 1 KB or larger.")
+    public ResponseEntity<Map<String, String>> setBytes(
+            @Parameter(description = "Cache key", example = "fragment:home") @PathVariable String key,
+            @Parameter(description = "TTL in seconds (0 = no expiry)") @RequestParam(defaultValue = "0") long ttlSeconds,
+            @RequestBody byte[] data) {
+        service.setBytes(key, data, ttlSeconds > 0 ? Duration.ofSeconds(ttlSeconds) : null);
+        return ResponseEntity.ok(Map.of("status", "OK"));
+    }
+
+    /**
+     * POST /api/cache/{key}/incr?by=1&ttlSeconds=60
+     * Like Redis: INCRBY key 1 (+ EXPIRE key 60 when the key is new)
+     */
+    @PostMapping("/{key}/incr")
+    @Operation(summary = "Increment a counter", description = "Like Redis INCR/INCRBY. Atomic single-statement upsert; "
+        + "a missing key starts at 0. ttlSeconds only applies when the key is created (rate-limit windows).")
+    public ResponseEntity<Map<String, Object>> incr(
+            @Parameter(description = "Cache key", example = "ratelimit:user-1") @PathVariable String key,
+            @Parameter(description = "Amount to add") @RequestParam(defaultValue = "1") long by,
+            @Parameter(description = "TTL for a newly created key") @RequestParam(defaultValue = "0") long ttlSeconds) {
+        long value = service.incrBy(key, by, ttlSeconds > 0 ? Duration.ofSeconds(ttlSeconds) : null);
+        return ResponseEntity.ok(Map.of("key", key, "value", value));
+    }
+
+    /**
+     * POST /api/cache/{key}/decr?by=1
+     * Like Redis: DECRBY key 1
+     */
+    @PostMapping("/{key}/decr")
+    @Operation(summary = "Decrement a counter", description = "Like Redis DECR/DECRBY. A missing key starts at 0.")
+    public ResponseEntity<Map<String, Object>> decr(
+            @Parameter(description = "Cache key", example = "stock:item-42") @PathVariable String key,
+            @Parameter(description = "Amount to subtract") @RequestParam(defaultValue = "1") long by,
+            @Parameter(description = "TTL for a newly created key") @RequestParam(defaultValue = "0") long ttlSeconds) {
+        if (by == Long.MIN_VALUE) {
+            throw new IllegalArgumentException("by is out of range");
+        }
+        long value = service.incrBy(key, -by, ttlSeconds > 0 ? Duration.ofSeconds(ttlSeconds) : null);
+        return ResponseEntity.ok(Map.of("key", key, "value", value));
+    }
+
+    /**
+     * POST /api/cache/{key}/expire?ttlSeconds=60
+     * Like Redis: EXPIRE key 60
+     */
+    @PostMapping("/{key}/expire")
+    @Operation(summary = "Set a key's TTL", description = "Like Redis EXPIRE. Returns updated=false if the key does not exist.")
+    public ResponseEntity<Map<String, Boolean>> expire(
+            @Parameter(description = "Cache key", example = "session:user-1") @PathVariable String key,
+            @Parameter(description = "New TTL in seconds", example = "60") @RequestParam long ttlSeconds) {
+        return ResponseEntity.ok(Map.of("updated", service.expire(key, Duration.ofSeconds(ttlSeconds))));
+    }
+
+    /**
+     * POST /api/cache/{key}/persist
+     * Like Redis: PERSIST key
+     */
+    @PostMapping("/{key}/persist")
+    @Operation(summary = "Remove a key's TTL", description = "Like Redis PERSIST. Returns updated=false if the key had no TTL or does not exist.")
+    public ResponseEntity<Map<String, Boolean>> persist(
+            @Parameter(description = "Cache key", example = "session:user-1") @PathVariable String key) {
+        return ResponseEntity.ok(Map.of("updated", service.persist(key)));
+    }
+
+    /**
+     * POST /api/cache/mget
+     * Body: { "keys": ["a", "b"] }
+     * Like Redis: MGET a b
+     */
+    @PostMapping("/mget")
+    @Operation(summary = "Get many cached values", description = "Like Redis MGET. Up to 1000 keys in one round trip; "
+        + "missing or expired keys map to null.",
+        requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+            content = @Content(examples = @ExampleObject(value = "{\"keys\": [\"session:user-1\", \"session:user-2\", \"config:feature-flags\"]}"))))
+    public Map<String, CacheEntry> mget(@RequestBody Map<String, List<String>> request) {
+        return service.mget(request.getOrDefault("keys", List.of()));
+    }
+
+    /**
+     * POST /api/cache/mset
+     * Body: [ { "key": "a", "value": { ... }, "ttlSeconds": 60 }, ... ]
+     * Like Redis: MSET a 1 b 2 — but each key keeps its own TTL
+     */
+    @PostMapping("/mset")
+    @Operation(summary = "Set many cached values", description = "Like Redis MSET, with a per-key TTL. Up to 1000 keys "
+        + "upserted with a single multi-row INSERT ... ON CONFLICT.",
+        requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+            content = @Content(examples = @ExampleObject(value = "[{\"key\": \"a\", \"value\": {\"n\": 1}, \"ttlSeconds\": 60}, {\"key\": \"b\", \"value\": {\"n\": 2}}]"))))
+    public ResponseEntity<Map<String, Object>> mset(@RequestBody List<JsonNode> entries) {
+        List<CacheWrite> writes = entries.stream().map(e -> {
+            long ttlSeconds = e.path("ttlSeconds").asLong(0);
+            return new CacheWrite(e.path("key").asText(), e.path("value").toString(),
+                ttlSeconds > 0 ? Duration.ofSeconds(ttlSeconds) : null);
+        }).toList();
+        service.mset(writes);
+        return ResponseEntity.ok(Map.of("status", "OK", "count", writes.size()));
+    }
+
+    /**
+     * POST /api/cache/mdel
+     * Body: { "keys": ["a", "b"] }
+     * Like Redis: DEL a b
+     */
+    @PostMapping("/mdel")
+    @Operation(summary = "Delete many cached values", description = "Like Redis DEL with several keys. Returns how many existed.",
+        requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+            content = @Content(examples = @ExampleObject(value = "{\"keys\": [\"a\", \"b\"]}"))))
+    public ResponseEntity<Map<String, Integer>> mdel(@RequestBody Map<String, List<String>> request) {
+        return ResponseEntity.ok(Map.of("deleted", service.mdel(request.getOrDefault("keys", List.of()))));
+    }
+
     /**
      * DELETE /api/cache/{key}
      * Like Redis: DEL key
@@ -1,18 +1,39 @@
 package org.tobenamed.justusepostgres.controller;
 
+import org.tobenamed.justusepostgres.model.QueueAck;
 import org.tobenamed.justusepostgres.model.QueueMessage;
+import org.tobenamed.justusepostgres.model.QueuePage;
+import org.tobenamed.justusepostgres.model.QueueSettings;
+import org.tobenamed.justusepostgres.model.QueueStats;
+import org.tobenamed.justusepostgres.model.StreamAck;
 import org.tobenamed.justusepostgres.service.QueueService;
+import org.tobenamed.justusepostgres.service.QueueStreamService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * REST API for Postgres-backed message queues (replaces Kafka/RabbitMQ/SQS).
@@ -32,83 +53,352 @@ import java.util.Optional;
 public class QueueController {
 
     private final QueueService service;
+    private final QueueStreamService streams;
+    private final ObjectMapper json;
 
-    public QueueController(QueueService service) {
+    public QueueController(QueueService service, QueueStreamService streams, ObjectMapper json) {
         this.service = service;
+        this.streams = streams;
+        // writeValue must not close the response stream after each message
+        this.json = json.copy().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
     }
 
     /**
      * POST /api/queue/{queue}/send
-     * Body: { "payload": { ... } }
+     * Body: { "payload": { ... }, "priority": 5, "delaySeconds": 60, "groupKey": "order-42" }
      * Enqueue a message (like RabbitMQ basic_publish or SQS SendMessage).
+     * {@code priority} (0-9) puts urgent messages first; {@code delaySeconds} or an ISO-8601
+     * {@code deliverAt} schedules delivery in the future (like SQS DelaySeconds);
+     * {@code groupKey} orders messages per entity (like SQS FIFO MessageGroupId).
      */
     @PostMapping("/{queue}/send")
-    @Operation(summary = "Send message", description = "Enqueue a message. Like RabbitMQ basic_publish or SQS SendMessage.",
+    @Operation(summary = "Send message", description = "Enqueue a message. Like RabbitMQ basic_publish or SQS SendMessage. "
+        + "Optional priority (0-9, higher first), delaySeconds / deliverAt for delayed delivery, and groupKey "
+        + "for FIFO ordering: one message per group is in flight at a time, groups are processed in parallel.",
         requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
-            content = @Content(examples = @ExampleObject(value = "{\"payload\": {\"to\": \"user@example.com\", \"subject\": \"Welcome!\", \"template\": \"onboarding\"}}"))))
+            content = @Content(examples = @ExampleObject(value = "{\"payload\": {\"to\": \"user@example.com\", \"subject\": \"Welcome!\", \"template\": \"onboarding\"}, \"priority\": 5, \"delaySeconds\": 0}"))))
     public ResponseEntity<Map<String, Object>> send(
             @Parameter(description = "Queue name", example = "emails") @PathVariable String queue,
             @RequestBody Map<String, Object> request) {
         String payload = request.getOrDefault("payload", "{}").toString();
-        Long id = service.send(queue, payload);
+        int priority = intField(request, "priority", 0);
+        String groupKey = stringField(request, "groupKey", null);
+        Long id = service.send(queue, payload, priority,
+            deliverAt(request.get("deliverAt"), request.get("delaySeconds")), groupKey);
         return ResponseEntity.ok(Map.of("messageId", id, "queue", queue, "status", "sent"));
     }
 
     /**
-     * POST /api/queue/{queue}/receive
+     * POST /api/queue/{queue}/send-batch?priority=5&delaySeconds=60&groupKey=order-42
+     * Body: [ { ... }, { ... } ]
+     * Enqueue many messages in one INSERT (like SQS SendMessageBatch).
+     */
+    @PostMapping("/{queue}/send-batch")
+    @Operation(summary = "Send message batch", description = "Enqueue up to 10,000 payloads with a single multi-row INSERT. "
+        + "Returns the assigned message ids in the same order as the payloads.",
+        requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+            content = @Content(examples = @ExampleObject(value = "[{\"to\": \"alice@example.com\", \"template\": \"onboarding\"}, {\"to\": \"bob@example.com\", \"template\": \"onboarding\"}]"))))
+    public ResponseEntity<Map<String, Object>> sendBatch(
+            @Parameter(description = "Queue name", example = "emails") @PathVariable String queue,
+            @Parameter(description = "Priority for every message (0-9, higher first)", example = "0") @RequestParam(defaultValue = "0") int priority,
+            @Parameter(description = "Delay delivery by N seconds", example = "0") @RequestParam(required = false) Integer delaySeconds,
+            @Parameter(description = "FIFO group for every message, delivered in payload order") @RequestParam(required = false) String groupKey,
+            @RequestBody List<JsonNode> payloads) {
+        List<Long> ids = service.sendBatch(queue, payloads.stream().map(JsonNode::toString).toList(),
+            priority, deliverAt(null, delaySeconds), groupKey);
+        return ResponseEntity.ok(Map.of("messageIds", ids, "queue", queue, "count", ids.size()));
+    }
+
+    /**
+     * POST /api/queue/{queue}/receive?max=10&waitSeconds=20
      * Dequeue one message (like SQS ReceiveMessage).
+     * With {@code max}, claims up to N messages in a single statement and returns them in FIFO order.
+     * With {@code waitSeconds}, long-polls until a message arrives instead of returning 204 immediately.
      * Uses SKIP LOCKED — safe for concurrent workers.
      */
     @PostMapping("/{queue}/receive")
-    @Operation(summary = "Receive message", description = "Dequeue one message using SKIP LOCKED. Safe for concurrent workers.")
-    public ResponseEntity<?> receive(@Parameter(description = "Queue name", example = "emails") @PathVariable String queue) {
-        Optional<QueueMessage> msg = service.receive(queue);
-        return msg.map(ResponseEntity::ok)
-            .orElse(ResponseEntity.noContent().build());
+    @Operation(summary = "Receive message(s)", description = "Dequeue one message using SKIP LOCKED. Safe for concurrent workers. "
+        + "Pass max to claim up to N messages atomically in one round trip (returned as an array, oldest first). "
+        + "Pass waitSeconds to long-poll (like SQS WaitTimeSeconds): the request is woken by NOTIFY when a message is sent.")
+    public CompletableFuture<ResponseEntity<?>> receive(
+            @Parameter(description = "Queue name", example = "emails") @PathVariable String queue,
+            @Parameter(description = "Max messages to claim (1-1000). Omit for single-message mode.", example = "10")
+            @RequestParam(required = false) Integer max,
+            @Parameter(description = "Long-poll wait in seconds (0-20)", example = "20")
+            @RequestParam(defaultValue = "0") int waitSeconds) {
+        if (waitSeconds == 0 && max == null) {
+            Optional<QueueMessage> msg = service.receive(queue);
+            return CompletableFuture.completedFuture(msg.<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElse(ResponseEntity.noContent().build()));
+        }
+        return service.receiveWait(queue, max != null ? max : 1, waitSeconds)
+            .thenApply(messages -> {
+                if (messages.isEmpty()) {
+                    return ResponseEntity.noContent().build();
+                }
+                return max != null ? ResponseEntity.ok(messages) : ResponseEntity.ok(messages.get(0));
+            });
     }
 
     /**
-     * POST /api/queue/complete/{messageId}
-     * Mark message as completed (like SQS DeleteMessage).
+     * GET /api/queue/{queue}/stream?credits=100
+     * Push messages over Server-Sent Events (like AMQP basic.consume with basic.qos prefetch).
+     * At most {@code credits} unacked messages are in flight; acks return credits.
+     */
+    @GetMapping(value = "/{queue}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Stream messages", description = "Keep one connection open and receive claimed messages as SSE "
+        + "'message' events. The first 'open' event carries the streamId; ack via POST /api/queue/stream/{streamId}/ack. "
+        + "Credit-based flow control: every pushed message spends a credit, every ack returns one.")
+    public SseEmitter stream(
+            @Parameter(description = "Queue name", example = "emails") @PathVariable String queue,
+            @Parameter(description = "Max unacknowledged messages (1-1000)", example = "100") @RequestParam(defaultValue = "100") int credits) {
+        return streams.open(queue, credits);
+    }
+
+    /**
+     * POST /api/queue/stream/{streamId}/ack
+     * Body: { "completed": [1, 2], "failed": [3], "credits": 0 }
+     * Batch ack for a stream; returns credits so the server pushes more.
+     */
+    @PostMapping("/stream/{streamId}/ack")
+    @Operation(summary = "Ack streamed messages", description = "Complete and/or fail messages received over a stream. "
+        + "Each acked message returns one credit; 'credits' grants extra. Returns 404 if the stream is closed.",
+        requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+            content = @Content(examples = @ExampleObject(value = "{\"completed\": [1, 2], \"failed\": [3], \"credits\": 0}"))))
+    public ResponseEntity<Map<String, Object>> ackStream(
+            @Parameter(description = "Stream ID from the 'open' event") @PathVariable String streamId,
+            @RequestBody StreamAck ack) {
+        return streams.ack(streamId, ack.completed(), ack.failed(), ack.credits())
+            .map(credits -> ResponseEntity.ok(Map.<String, Object>of("streamId", streamId, "credits", credits)))
+            .orElse(ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("streamId", streamId, "error", "stream closed")));
+    }
+
+    /**
+     * POST /api/queue/extend/{messageId}?receipt=...&seconds=60
+     * Heartbeat: keep a claimed message leased (like SQS ChangeMessageVisibility).
+     */
+    @PostMapping("/extend/{messageId}")
+    @Operation(summary = "Extend message lease", description = "Heartbeat for long-running jobs. Pushes the lease to now + seconds "
+        + "so the message is not handed to another worker. Returns 409 if the lease already lapsed or the message was re-claimed.")
+    public ResponseEntity<Map<String, Object>> extend(
+            @Parameter(description = "Message ID", example = "1") @PathVariable Long messageId,
+            @Parameter(description = "Receipt returned when the message was claimed") @RequestParam UUID receipt,
+            @Parameter(description = "New lease length in seconds", example = "60") @RequestParam(defaultValue = "30") int seconds) {
+        return service.extendLease(messageId, receipt, seconds)
+            .map(leaseUntil -> ResponseEntity.ok(Map.<String, Object>of("extended", true, "messageId", messageId, "leaseUntil", leaseUntil)))
+            .orElse(ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("extended", false, "messageId", messageId)));
+    }
+
+    /**
+     * POST /api/queue/complete/{messageId}?receipt=...
+     * Mark message as completed (like SQS DeleteMessage). Concurrent single acks are group
+     * committed: an ack is written at once unless a flush is running, in which case it joins
+     * the next one.
      */
     @PostMapping("/complete/{messageId}")
-    @Operation(summary = "Complete message", description = "Mark message as completed. Like SQS DeleteMessage.")
-    public ResponseEntity<Map<String, Object>> complete(@Parameter(description = "Message ID", example = "1") @PathVariable Long messageId) {
-        boolean ok = service.complete(messageId);
-        return ResponseEntity.ok(Map.of("completed", ok, "messageId", messageId));
+    @Operation(summary = "Complete message", description = "Mark message as completed. Like SQS DeleteMessage. "
+        + "Acks arriving together from all clients are written in one statement. "
+        + "completed=false means the message is no longer held under this receipt.")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> complete(
+            @Parameter(description = "Message ID", example = "1") @PathVariable Long messageId,
+            @Parameter(description = "Receipt returned when the message was claimed") @RequestParam UUID receipt) {
+        return service.completeAsync(messageId, receipt)
+            .thenApply(ok -> ResponseEntity.ok(Map.<String, Object>of("completed", ok, "messageId", messageId)));
     }
 
     /**
-     * POST /api/queue/fail/{messageId}
-     * Mark message as failed (dead-letter).
+     * POST /api/queue/fail/{messageId}?receipt=...
+     * Record a failed attempt: retry with exponential backoff, or move to the dead-letter queue.
      */
     @PostMapping("/fail/{messageId}")
-    @Operation(summary = "Fail message", description = "Mark message as failed (dead-letter).")
-    public ResponseEntity<Map<String, Object>> fail(@Parameter(description = "Message ID", example = "1") @PathVariable Long messageId) {
-        boolean ok = service.fail(messageId);
-        return ResponseEntity.ok(Map.of("failed", ok, "messageId", messageId));
+    @Operation(summary = "Fail message", description = "Record a failed attempt. The message is retried after an exponential "
+        + "backoff with jitter ('scheduled'), or moved to the dead-letter queue once max attempts is reached.")
+    public ResponseEntity<Map<String, Object>> fail(
+            @Parameter(description = "Message ID", example = "1") @PathVariable Long messageId,
+            @Parameter(description = "Receipt returned when the message was claimed") @RequestParam UUID receipt) {
+        return ResponseEntity.ok(failOutcome(messageId, service.fail(messageId, receipt)));
+    }
+
+    /**
+     * POST /api/queue/complete
+     * Body: { "messages": [ { "messageId": 1, "receipt": "..." }, ... ] }
+     * Complete many messages in one UPDATE (like SQS DeleteMessageBatch).
+     */
+    @PostMapping("/complete")
+    @Operation(summary = "Complete messages (batch)", description = "Complete up to 10,000 messages with a single "
+        + "UPDATE over unnest(ids, receipts). Returns one outcome per message; completed=false means it was not "
+        + "in flight under that receipt.",
+        requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+            content = @Content(examples = @ExampleObject(value = "{\"messages\": [{\"messageId\": 1, \"receipt\": \"3f1c2a9e-8d4b-4c6f-9a51-0e7b2d6c8f10\"}]}"))))
+    public ResponseEntity<Map<String, Object>> completeBatch(@RequestBody Map<String, List<QueueAck>> request) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        service.completeBatch(request.getOrDefault("messages", List.of()))
+            .forEach((id, ok) -> results.add(Map.of("messageId", id, "completed", ok)));
+        return ResponseEntity.ok(Map.of("results", results));
+    }
+
+    /**
+     * POST /api/queue/fail
+     * Body: { "messages": [ { "messageId": 1, "receipt": "..." }, ... ] }
+     * Record failed attempts for many messages in one statement.
+     */
+    @PostMapping("/fail")
+    @Operation(summary = "Fail messages (batch)", description = "Record a failed attempt for up to 10,000 messages in one "
+        + "statement. Returns one outcome per message with the same fields as the single-message fail.",
+        requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+            content = @Content(examples = @ExampleObject(value = "{\"messages\": [{\"messageId\": 1, \"receipt\": \"3f1c2a9e-8d4b-4c6f-9a51-0e7b2d6c8f10\"}]}"))))
+    public ResponseEntity<Map<String, Object>> failBatch(@RequestBody Map<String, List<QueueAck>> request) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        service.failBatch(request.getOrDefault("messages", List.of()))
+            .forEach((id, outcome) -> results.add(failOutcome(id, outcome)));
+        return ResponseEntity.ok(Map.of("results", results));
+    }
+
+    /**
+     * GET /api/queue/{queue}/settings
+     * Per-queue attributes (like SQS GetQueueAttributes).
+     */
+    @GetMapping("/{queue}/settings")
+    @Operation(summary = "Get queue settings", description = "Per-queue attributes such as the visibility timeout. Returns defaults if none were set.")
+    public QueueSettings getSettings(@Parameter(description = "Queue name", example = "emails") @PathVariable String queue) {
+        return service.getSettings(queue);
+    }
+
+    /**
+     * PUT /api/queue/{queue}/settings
+     * Body: { "visibilityTimeoutSeconds": 120, "maxAttempts": 5, "deadLetterQueue": "emails.dlq" }
+     * Like SQS SetQueueAttributes.
+     */
+    @PutMapping("/{queue}/settings")
+    @Operation(summary = "Update queue settings", description = "Like SQS SetQueueAttributes. The visibility timeout controls when a claimed message "
+        + "is handed to another worker; maxAttempts/backoff control retries before the message moves to the dead-letter queue.",
+        requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+            content = @Content(examples = @ExampleObject(value = "{\"visibilityTimeoutSeconds\": 120, \"maxAttempts\": 5, \"backoffBaseSeconds\": 5, \"backoffMaxSeconds\": 900, \"deadLetterQueue\": \"emails.dlq\"}"))))
+    public QueueSettings saveSettings(
+            @Parameter(description = "Queue name", example = "emails") @PathVariable String queue,
+            @RequestBody Map<String, Object> request) {
+        QueueSettings current = service.getSettings(queue);
+        return service.saveSettings(new QueueSettings(
+            queue,
+            intField(request, "visibilityTimeoutSeconds", current.visibilityTimeoutSeconds()),
+            intField(request, "maxAttempts", current.maxAttempts()),
+            intField(request, "backoffBaseSeconds", current.backoffBaseSeconds()),
+            intField(request, "backoffMaxSeconds", current.backoffMaxSeconds()),
+            stringField(request, "deadLetterQueue", current.deadLetterQueue())
+        ));
     }
 
     /**
      * GET /api/queue/{queue}/stats
-     * Queue depth by status.
+     * Queue depth by status (like SQS ApproximateNumberOfMessages).
      */
     @GetMapping("/{queue}/stats")
-    @Operation(summary = "Queue statistics", description = "Get message count grouped by status.")
-    public List<Map<String, Object>> stats(@Parameter(description = "Queue name", example = "emails") @PathVariable String queue) {
+    @Operation(summary = "Queue statistics", description = "Get message count grouped by status. Served from a snapshot "
+        + "refreshed every 2 seconds; asOf and ageMs tell how stale the counts are.")
+    public QueueStats stats(@Parameter(description = "Queue name", example = "emails") @PathVariable String queue) {
         return service.stats(queue);
     }
 
     /**
-     * GET /api/queue/{queue}/messages?status=pending&limit=20
-     * List messages in a queue.
+     * GET /api/queue/{queue}/messages?status=pending&limit=20&cursor=...
+     * Browse messages in a queue, a page at a time (keyset pagination on created_at, id).
      */
     @GetMapping("/{queue}/messages")
-    @Operation(summary = "List queue messages", description = "Browse messages in a queue, optionally filtering by status.")
-    public List<QueueMessage> list(
+    @Operation(summary = "List queue messages", description = "Browse messages in a queue, oldest first, optionally filtering "
+        + "by status. Pass nextCursor from the previous page as cursor to continue; null means the last page.")
+    public QueuePage list(
             @Parameter(description = "Queue name", example = "emails") @PathVariable String queue,
             @Parameter(description = "Filter by status", example = "pending") @RequestParam(required = false) String status,
-            @Parameter(description = "Max results", example = "20") @RequestParam(defaultValue = "20") int limit) {
-        return service.list(queue, status, limit);
+            @Parameter(description = "Max results (1-1000)", example = "20") @RequestParam(defaultValue = "20") int limit,
+            @Parameter(description = "nextCursor from the previous page") @RequestParam(required = false) String cursor) {
+        return service.list(queue, status, cursor, limit);
+    }
+
+    /**
+     * GET /api/queue/{queue}/export?status=pending
+     * Stream every matching message as NDJSON (one JSON object per line). Runs as an async
+     * response bounded by {@code spring.mvc.async.request-timeout} (30 minutes in application.yml);
+     * an export still running then is cut off.
+     */
+    @GetMapping(value = "/{queue}/export", produces = "application/x-ndjson")
+    @Operation(summary = "Export queue messages", description = "Stream all messages of a queue as NDJSON, oldest first. "
+        + "Walks the queue in keyset pages, so exporting millions of messages uses constant memory. "
+        + "Exports may run for up to spring.mvc.async.request-timeout (30 minutes by default).")
+    public ResponseEntity<StreamingResponseBody> export(
+            @Parameter(description = "Queue name", example = "emails") @PathVariable String queue,
+            @Parameter(description = "Filter by status", example = "pending") @RequestParam(required = false) String status) {
+        StreamingResponseBody body = out -> {
+            service.export(queue, status, message -> {
+                try {
+                    json.writeValue(out, message);
+                    out.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    private static Map<String, Object> failOutcome(Long messageId, Optional<Map<String, Object>> outcome) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("messageId", messageId);
+        outcome.ifPresentOrElse(o -> {
+            body.put("failed", true);
+            body.put("status", o.get("status"));
+            body.put("queue", o.get("queue"));
+            body.put("visibleAt", o.get("visible_at"));
+        }, () -> body.put("failed", false));
+        return body;
+    }
+
+    /**
+     * Resolve an explicit deliverAt (ISO-8601) or a relative delaySeconds; null = now.
+     * Malformed values are rejected with {@link IllegalArgumentException}, i.e. a 400.
+     */
+    /** A whole-number body field; strings, fractions and out-of-range values are a 400, not a 500. */
+    private static int intField(Map<String, Object> request, String name, int defaultValue) {
+        Object value = request.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short) {
+            long n = ((Number) value).longValue();
+            if (n >= Integer.MIN_VALUE && n <= Integer.MAX_VALUE) {
+                return (int) n;
+            }
+        }
+        throw new IllegalArgumentException(name + " must be an integer");
+    }
+
+    /** A string body field; an explicit JSON null is kept (it clears the setting), a missing one defaults. */
+    private static String stringField(Map<String, Object> request, String name, String defaultValue) {
+        if (!request.containsKey(name)) {
+            return defaultValue;
+        }
+        Object value = request.get(name);
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        throw new IllegalArgumentException(name + " must be a string");
+    }
+
+    private static Instant deliverAt(Object deliverAt, Object delaySeconds) {
+        if (deliverAt != null) {
+            try {
+                return Instant.parse(deliverAt.toString());
+            } catch (DateTimeException e) {
+                throw new IllegalArgumentException("deliverAt must be an ISO-8601 instant, e.g. 2030-01-01T00:00:00Z");
+            }
+        }
+        if (delaySeconds != null) {
+            try {
+                return Instant.now().plusSeconds(((Number) delaySeconds).longValue());
+            } catch (ClassCastException | DateTimeException | ArithmeticException e) {
+                throw new IllegalArgumentException("delaySeconds must be a number of seconds");
+            }
+        }
+        return null;
     }
 }
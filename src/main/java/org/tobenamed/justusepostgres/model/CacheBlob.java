@@ -0,0 +1,21 @@
+package org.tobenamed.justusepostgres.model;
+
+import java.time.Instant;
+
+/**
+ * Binary cache entry (like a Redis string holding raw bytes).
+ *
+ * Stored in {@code cache_entries.value_bytes} instead of the JSONB column, so large opaque
+ * values skip JSON parsing and serialization. {@code codec} is how the bytes were compressed
+ * ({@code none}, {@code lz4} or {@code zstd}). {@code loadMillis} is how long a
+ * {@code getOrLoad} loader took to compute the value (null for plain SETs); it decides how
+ * early the value is refreshed.
+ */
+public record CacheBlob(
+    String key,
+    byte[] data,
+    String codec,
+    Instant expiresAt,
+    Instant createdAt,
+    Integer loadMillis
+) {}
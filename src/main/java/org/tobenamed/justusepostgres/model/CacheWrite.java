@@ -0,0 +1,12 @@
+package org.tobenamed.justusepostgres.model;
+
+import java.time.Duration;
+
+/**
+ * One key of a multi-key SET (like one key/value pair of Redis MSET, but with its own TTL).
+ */
+public record CacheWrite(
+    String key,
+    String jsonValue,   // JSONB stored as String
+    Duration ttl        // null = no expiry
+) {}
@@ -0,0 +1,12 @@
+package org.tobenamed.justusepostgres.model;
+
+import java.util.UUID;
+
+/**
+ * One entry of a batch ack or nack: the message and the receipt of the claim being acked
+ * (like an entry of SQS DeleteMessageBatch).
+ */
+public record QueueAck(
+    Long messageId,
+    UUID receipt
+) {}
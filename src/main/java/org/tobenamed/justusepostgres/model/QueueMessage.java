@@ -1,6 +1,7 @@
 package org.tobenamed.justusepostgres.model;
 
 import java.time.Instant;
+import java.util.UUID;
 
 /**
  * Message from a Postgres-backed task queue (replaces Kafka/RabbitMQ/SQS).
@@ -16,13 +17,23 @@ import java.time.Instant;
  *   <li>Automatic retry on rollback (the row becomes visible again)</li>
  *   <li>No separate broker — the queue IS your database</li>
  * </ul>
+ *
+ * <h3>Receipts</h3>
+ * Every claim draws a fresh {@code receipt} (like an SQS ReceiptHandle). Completing, failing
+ * or extending a message requires it, so a worker whose lease lapsed cannot ack the claim
+ * another worker holds now.
  */
 public record QueueMessage(
     Long id,
     String queue,
     String payload,     // JSONB stored as String
-    String status,      // 'pending', 'processing', 'completed', 'failed'
+    String status,      // 'pending', 'scheduled', 'processing', 'completed', 'failed'
     int attempts,
     Instant createdAt,
-    Instant processedAt
+    Instant processedAt,
+    Instant leaseUntil, // visibility deadline while 'processing'; extend it with a heartbeat
+    int priority,       // higher is dequeued first
+    Instant visibleAt,  // when a 'scheduled' message (delayed delivery or retry) becomes claimable
+    String groupKey,    // FIFO group: at most one message per group is in flight; null = unordered
+    UUID receipt        // handle of the current claim; only returned to the worker that claimed it
 ) {}
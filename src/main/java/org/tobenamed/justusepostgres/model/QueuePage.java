@@ -0,0 +1,14 @@
+package org.tobenamed.justusepostgres.model;
+
+import java.util.List;
+
+/**
+ * One page of a queue browse.
+ *
+ * {@code nextCursor} is an opaque token for the page after this one, or {@code null}
+ * when this is the last page. Pass it back unchanged as {@code ?cursor=}.
+ */
+public record QueuePage(
+    List<QueueMessage> messages,
+    String nextCursor
+) {}
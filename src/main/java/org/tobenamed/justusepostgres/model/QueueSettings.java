@@ -0,0 +1,23 @@
+package org.tobenamed.justusepostgres.model;
+
+/**
+ * Per-queue attributes (like SQS queue attributes).
+ *
+ * Stored in {@code queue_settings}; queues without a row use the service defaults.
+ * The visibility timeout is the initial lease a claimed message gets; unless the
+ * consumer extends it with a heartbeat, the requeue sweep hands the message to
+ * another worker once it lapses.
+ *
+ * <h3>Retries and dead-lettering</h3>
+ * A failed attempt is retried after {@code min(backoffMax, backoffBase * 2^(attempts-1))}
+ * seconds, with 50% jitter so retry storms spread out. After {@code maxAttempts} the
+ * message moves to the dead-letter queue (like SQS maxReceiveCount + RedrivePolicy).
+ */
+public record QueueSettings(
+    String queue,
+    int visibilityTimeoutSeconds,
+    int maxAttempts,
+    int backoffBaseSeconds,
+    int backoffMaxSeconds,
+    String deadLetterQueue   // null = '<queue>.dlq'
+) {}
@@ -0,0 +1,19 @@
+package org.tobenamed.justusepostgres.model;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Queue depth by status, served from an in-memory snapshot (like SQS
+ * ApproximateNumberOfMessages — cheap to poll, bounded staleness).
+ *
+ * The counts were exact at {@code asOf}; they are {@code ageMs} old now and are never
+ * more than {@code refreshIntervalMs} plus one refresh query behind while refreshes succeed.
+ */
+public record QueueStats(
+    String queue,
+    Map<String, Long> counts,   // status -> messages; statuses with no messages are omitted
+    Instant asOf,
+    long ageMs,
+    long refreshIntervalMs
+) {}
@@ -0,0 +1,20 @@
+package org.tobenamed.justusepostgres.model;
+
+import java.util.List;
+
+/**
+ * Batch acknowledgement for a streaming consumer.
+ *
+ * Every completed or failed message returns one credit to the stream; {@code credits}
+ * grants extra ones to widen the window.
+ */
+public record StreamAck(
+    List<Long> completed,
+    List<Long> failed,
+    int credits
+) {
+    public StreamAck {
+        completed = completed != null ? completed : List.of();
+        failed = failed != null ? failed : List.of();
+    }
+}
@@ -1,12 +1,23 @@
 package org.tobenamed.justusepostgres.repository;
 
+import org.tobenamed.justusepostgres.model.CacheBlob;
 import org.tobenamed.justusepostgres.model.CacheEntry;
+import org.tobenamed.justusepostgres.model.CacheWrite;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 /**
  * Repository for key-value caching using UNLOGGED tables.
@@ -16,7 +27,11 @@ import java.util.Optional;
  *   <li>UNLOGGED tables skip WAL — writes are ~2-5x faster than regular tables</li>
  *   <li>Data survives normal restarts but is LOST on crash — same as Redis</li>
  *   <li>Unlike Redis: supports SQL queries, JOINs, and JSONB operators on values</li>
- *   <li>TTL via {@code expires_at} column + scheduled cleanup (like Redis EXPIRE)</li>
+ *   <li>Opaque values (HTML fragments, protobufs) can skip JSONB and live in {@code value_bytes}</li>
+ *   <li>TTL via {@code expires_at} column: reads skip expired rows, and a background
+ *       evictor deletes them in small batches (like Redis lazy + active expiration)</li>
+ *   <li>Writes NOTIFY {@value #INVALIDATION_CHANNEL} so per-instance near caches stay coherent
+ *       (like Redis client-side caching with invalidation messages); counter increments don't</li>
  * </ul>
  *
  * <h3>When to still use Redis</h3>
@@ -29,6 +44,30 @@ import java.util.Optional;
 @Repository
 public class CacheRepository {
 
+    /** NOTIFY channel for cross-instance near-cache invalidation; the payload is the key. */
+    public static final String INVALIDATION_CHANNEL = "cache_invalidation";
+
+    /** First key of the two-key advisory locks taken by {@link #withLoadLock}. */
+    private static final int LOAD_LOCK_NAMESPACE = 0x63616368; // "cach"
+
+    private static final RowMapper<CacheEntry> ENTRY_MAPPER = (rs, rowNum) -> new CacheEntry(
+        rs.getString("key"),
+        rs.getString("value"),
+        rs.getTimestamp("expires_at") != null
+            ? rs.getTimestamp("expires_at").toInstant() : null,
+        rs.getTimestamp("created_at").toInstant()
+    );
+
+    private static final RowMapper<CacheBlob> BLOB_MAPPER = (rs, rowNum) -> new CacheBlob(
+        rs.getString("key"),
+        rs.getBytes("value_bytes"),
+        rs.getString("codec"),
+        rs.getTimestamp("expires_at") != null
+            ? rs.getTimestamp("expires_at").toInstant() : null,
+        rs.getTimestamp("created_at").toInstant(),
+        rs.getObject("load_ms", Integer.class)
+    );
+
     private final JdbcTemplate jdbc;
 
     public CacheRepository(JdbcTemplate jdbc) {
@@ -41,42 +80,384 @@ public class CacheRepository {
             SELECT key, value::text, expires_at, created_at
             FROM cache_entries
             WHERE key = ?
+              AND value IS NOT NULL
               AND (expires_at IS NULL OR expires_at > NOW())
             """,
-            (rs, rowNum) -> new CacheEntry(
-                rs.getString("key"),
-                rs.getString("value"),
-                rs.getTimestamp("expires_at") != null
-                    ? rs.getTimestamp("expires_at").toInstant() : null,
-                rs.getTimestamp("created_at").toInstant()
-            ),
+            ENTRY_MAPPER,
             key
         );
         return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
     }
 
-    /** SET — Upsert a cache entry with optional TTL. */
+    /**
+     * SET — Upsert a cache entry with optional TTL.
+     * The same statement NOTIFYs the key so other instances drop it from their near cache.
+     */
     public void set(String key, String jsonValue, Duration ttl) {
         long ttlSeconds = ttl != null ? ttl.getSeconds() : 0;
-        jdbc.update("""
-            INSERT INTO cache_entries (key, value, expires_at)
-            VALUES (?, ?::jsonb, CASE WHEN ? > 0 THEN NOW() + (? || ' seconds')::interval ELSE NULL END)
-            ON CONFLICT (key) DO UPDATE
-            SET value = EXCLUDED.value,
-                expires_at = EXCLUDED.expires_at,
-                created_at = NOW()
+        jdbc.queryForList("""
+            WITH upsert AS (
+                INSERT INTO cache_entries (key, value, expires_at)
+                VALUES (?, ?::jsonb, CASE WHEN ? > 0 THEN NOW() + (? || ' seconds')::interval ELSE NULL END)
+                ON CONFLICT (key) DO UPDATE
+                SET value = EXCLUDED.value,
+                    value_bytes = NULL,
+                    codec = NULL,
+                    expires_at = EXCLUDED.expires_at,
+                    created_at = NOW(),
+                    load_ms = NULL
+                RETURNING key
+            )
+            SELECT u.key FROM upsert u, pg_notify('cache_invalidation', u.key)
             """,
+            String.class,
             key, jsonValue, ttlSeconds, ttlSeconds
         );
     }
 
-    /** DEL — Remove a cache entry. */
+    /**
+     * Run {@code load} as the one loader of {@code key} across all instances; returns empty
+     * without running it if another session is loading the key right now.
+     *
+     * <p>The lock is a session-level {@code pg_try_advisory_lock}, taken and released on one
+     * connection that is held, outside any transaction, only for the duration of the load:
+     * no snapshot stays open and nothing sits idle in transaction. Queries made by
+     * {@code load} itself borrow their own connections.
+     */
+    public <T> Optional<T> withLoadLock(String key, Supplier<T> load) {
+        return jdbc.execute((ConnectionCallback<Optional<T>>) con -> {
+            if (!advisoryLock(con, "SELECT pg_try_advisory_lock(?, hashtext(?))", key)) {
+                return Optional.empty();
+            }
+            try {
+                return Optional.of(load.get());
+            } finally {
+                advisoryLock(con, "SELECT pg_advisory_unlock(?, hashtext(?))", key);
+            }
+        });
+    }
+
+    private static boolean advisoryLock(Connection con, String sql, String key) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(sql)) {
+            ps.setInt(1, LOAD_LOCK_NAMESPACE);
+            ps.setString(2, key);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * SET for opaque bytes — bound as {@code bytea}, so Postgres neither parses nor
+     * re-serializes the value. {@code codec} records how the app encoded it.
+     */
+    public void setBytes(String key, byte[] data, String codec, Duration ttl) {
+        setBytes(key, data, codec, ttl, null);
+    }
+
+    /**
+     * SET for opaque bytes, recording how long the value took to compute, which drives early
+     * refresh in {@code CacheService#getOrLoad}. Returns the entry as stored.
+     */
+    public CacheBlob setBytes(String key, byte[] data, String codec, Duration ttl, Integer loadMillis) {
+        long ttlSeconds = ttl != null ? ttl.getSeconds() : 0;
+        return jdbc.queryForObject("""
+            WITH upsert AS (
+                INSERT INTO cache_entries (key, value_bytes, codec, expires_at, load_ms)
+                VALUES (?, ?, ?, CASE WHEN ? > 0 THEN NOW() + make_interval(secs => ?) END, ?)
+                ON CONFLICT (key) DO UPDATE
+                SET value = NULL,
+                    value_bytes = EXCLUDED.value_bytes,
+                    codec = EXCLUDED.codec,
+                    expires_at = EXCLUDED.expires_at,
+                    created_at = NOW(),
+                    load_ms = EXCLUDED.load_ms
+                RETURNING key, value_bytes, codec, expires_at, created_at, load_ms
+            )
+            SELECT u.* FROM upsert u, pg_notify('cache_invalidation', u.key)
+            """,
+            BLOB_MAPPER,
+            key, data, codec, ttlSeconds, ttlSeconds, loadMillis
+        );
+    }
+
+    /** GET for a binary entry; the bytes are returned exactly as stored (still encoded). */
+    public Optional<CacheBlob> getBytes(String key) {
+        return jdbc.query("""
+            SELECT key, value_bytes, codec, expires_at, created_at, load_ms
+            FROM cache_entries
+            WHERE key = ?
+              AND value_bytes IS NOT NULL
+              AND (expires_at IS NULL OR expires_at > NOW())
+            """,
+            BLOB_MAPPER,
+            key
+        ).stream().findFirst();
+    }
+
+    /** DEL — Remove a cache entry, NOTIFYing the key if it existed. */
     public boolean delete(String key) {
-        return jdbc.update("DELETE FROM cache_entries WHERE key = ?", key) > 0;
+        return !jdbc.queryForList("""
+            WITH deleted AS (
+                DELETE FROM cache_entries WHERE key = ? RETURNING key
+            )
+            SELECT d.key FROM deleted d, pg_notify('cache_invalidation', d.key)
+            """,
+            String.class,
+            key
+        ).isEmpty();
+    }
+
+    /** MGET — Retrieve many entries in one round trip; missing or expired keys are omitted. */
+    public List<CacheEntry> mget(List<String> keys) {
+        return jdbc.query("""
+            SELECT key, value::text, expires_at, created_at
+            FROM cache_entries
+            WHERE key = ANY(?::text[])
+              AND value IS NOT NULL
+              AND (expires_at IS NULL OR expires_at > NOW())
+            """,
+            ENTRY_MAPPER,
+            (Object) keys.toArray(new String[0])
+        );
+    }
+
+    /**
+     * MSET — Upsert many entries, each with its own TTL, in one statement.
+     * Keys, values and TTLs are bound as three parallel arrays and zipped with {@code unnest};
+     * rows are written in key order so concurrent MSETs cannot deadlock. Keys must be unique.
+     */
+    public void mset(List<CacheWrite> writes) {
+        jdbc.queryForList("""
+            WITH upsert AS (
+                INSERT INTO cache_entries (key, value, expires_at)
+                SELECT w.key, w.value::jsonb,
+                       CASE WHEN w.ttl > 0 THEN NOW() + make_interval(secs => w.ttl) END
+                FROM unnest(?::text[], ?::text[], ?::bigint[]) AS w(key, value, ttl)
+                ORDER BY w.key
+                ON CONFLICT (key) DO UPDATE
+                SET value = EXCLUDED.value,
+                    value_bytes = NULL,
+                    codec = NULL,
+                    expires_at = EXCLUDED.expires_at,
+                    created_at = NOW(),
+                    load_ms = NULL
+                RETURNING key
+            )
+            SELECT u.key FROM upsert u, pg_notify('cache_invalidation', u.key)
+            """,
+            String.class,
+            writes.stream().map(CacheWrite::key).toArray(String[]::new),
+            writes.stream().map(CacheWrite::jsonValue).toArray(String[]::new),
+            writes.stream().map(w -> w.ttl() != null ? w.ttl().getSeconds() : 0L).toArray(Long[]::new)
+        );
     }
 
-    /** Cleanup expired entries (call this periodically, like Redis lazy expiration). */
-    public int evictExpired() {
-        return jdbc.update("DELETE FROM cache_entries WHERE expires_at < NOW()");
+    /** MDEL — Remove many entries; returns the keys that existed. */
+    public List<String> mdel(List<String> keys) {
+        return jdbc.queryForList("""
+            WITH deleted AS (
+                DELETE FROM cache_entries WHERE key = ANY(?::text[]) RETURNING key
+            )
+            SELECT d.key FROM deleted d, pg_notify('cache_invalidation', d.key)
+            """,
+            String.class,
+            (Object) keys.toArray(new String[0])
+        );
+    }
+
+    /**
+     * INCRBY — Atomically add {@code delta} to an integer value and return the result.
+     *
+     * <p>One upsert, no read-then-write: concurrent increments of the same key queue on its
+     * row lock inside Postgres and never lose an update. A missing or expired key starts
+     * from 0 (an expired binary value is dropped too) and gets {@code ttlIfCreated} (like INCR
+     * followed by EXPIRE on the first hit, the usual rate-limit window); an existing key keeps its TTL, as in Redis.
+     * A non-integer or binary value, or bigint overflow, fails the statement (SQLSTATE 22xxx).
+     * <p>
+     * No NOTIFY: a hot counter would otherwise flood every instance with one invalidation
+     * per increment. Near caches never hold integer values, so there is nothing to drop.
+     */
+    public long incrBy(String key, long delta, Duration ttlIfCreated) {
+        long ttlSeconds = ttlIfCreated != null ? ttlIfCreated.getSeconds() : 0;
+        Long value = jdbc.queryForObject("""
+            WITH upsert AS (
+                INSERT INTO cache_entries AS c (key, value, expires_at)
+                VALUES (?, to_jsonb(?::bigint), CASE WHEN ? > 0 THEN NOW() + make_interval(secs => ?) END)
+                ON CONFLICT (key) DO UPDATE
+                SET value = CASE WHEN c.expires_at <= NOW() THEN EXCLUDED.value
+                                 ELSE to_jsonb((COALESCE(c.value, '"binary"') #>> '{}')::bigint + ?) END,
+                    value_bytes = CASE WHEN c.expires_at <= NOW() THEN NULL ELSE c.value_bytes END,
+                    codec = CASE WHEN c.expires_at <= NOW() THEN NULL ELSE c.codec END,
+                    load_ms = CASE WHEN c.expires_at <= NOW() THEN NULL ELSE c.load_ms END,
+                    expires_at = CASE WHEN c.expires_at <= NOW() THEN EXCLUDED.expires_at
+                                      ELSE c.expires_at END,
+                    created_at = CASE WHEN c.expires_at <= NOW() THEN NOW() ELSE c.created_at END
+                RETURNING value
+            )
+            SELECT (value #>> '{}')::bigint FROM upsert
+            """,
+            Long.class,
+            key, delta, ttlSeconds, ttlSeconds, delta
+        );
+        return value != null ? value : delta;
+    }
+
+    /** EXPIRE — Set a new TTL on a live key; returns false if the key does not exist. */
+    public boolean expire(String key, Duration ttl) {
+        return !jdbc.queryForList("""
+            WITH updated AS (
+                UPDATE cache_entries
+                SET expires_at = NOW() + make_interval(secs => ?)
+                WHERE key = ?
+                  AND (expires_at IS NULL OR expires_at > NOW())
+                RETURNING key
+            )
+            SELECT u.key FROM updated u, pg_notify('cache_invalidation', u.key)
+            """,
+            String.class,
+            ttl.getSeconds(), key
+        ).isEmpty();
+    }
+
+    /** PERSIST — Remove the TTL of a live key; returns false if it had none or does not exist. */
+    public boolean persist(String key) {
+        return !jdbc.queryForList("""
+            WITH updated AS (
+                UPDATE cache_entries
+                SET expires_at = NULL
+                WHERE key = ?
+                  AND expires_at > NOW()
+                RETURNING key
+            )
+            SELECT u.key FROM updated u, pg_notify('cache_invalidation', u.key)
+            """,
+            String.class,
+            key
+        ).isEmpty();
+    }
+
+    /** Remove every entry whose key starts with {@code prefix}; returns how many existed. */
+    public int deleteByPrefix(String prefix) {
+        return jdbc.queryForList("""
+            WITH deleted AS (
+                DELETE FROM cache_entries WHERE starts_with(key, ?) RETURNING key
+            )
+            SELECT d.key FROM deleted d, pg_notify('cache_invalidation', d.key)
+            """,
+            String.class,
+            prefix
+        ).size();
+    }
+
+    /**
+     * Delete up to {@code limit} expired entries, soonest-expired first.
+     *
+     * <p>The batch walks {@code idx_cache_entries_expires} from its low end, so each call
+     * touches only the rows it deletes; SKIP LOCKED steps over keys a writer is refreshing
+     * right now instead of waiting on them. Reads already hide expired rows, so no NOTIFY.
+     */
+    public int evictExpired(int limit) {
+        return jdbc.update("""
+            WITH doomed AS (
+                SELECT key FROM cache_entries
+                WHERE expires_at < NOW()
+                ORDER BY expires_at
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            )
+            DELETE FROM cache_entries c
+            USING doomed d
+            WHERE c.key = d.key
+            """,
+            limit
+        );
+    }
+
+    /**
+     * Flush batched access stats: bump {@code hits} and {@code last_accessed} for each key.
+     * Rows are locked in key order with SKIP LOCKED, so concurrent flushes from several
+     * instances never deadlock; a skipped row just loses a few counts (the stats are approximate).
+     */
+    public int recordAccesses(List<String> keys, List<Long> counts) {
+        return jdbc.update("""
+            WITH accessed AS (
+                SELECT * FROM unnest(?::text[], ?::bigint[]) AS a(key, n)
+            ),
+            locked AS (
+                SELECT c.key FROM cache_entries c
+                JOIN accessed a ON a.key = c.key
+                ORDER BY c.key
+                FOR UPDATE OF c SKIP LOCKED
+            )
+            UPDATE cache_entries c
+            SET hits = c.hits + a.n,
+                last_accessed = NOW()
+            FROM accessed a, locked l
+            WHERE c.key = l.key AND a.key = l.key
+            """,
+            keys.toArray(new String[0]),
+            counts.toArray(new Long[0])
+        );
+    }
+
+    /**
+     * Live row count per partition, from the statistics collector — no table scan, and
+     * at most a second or so behind, which is close enough for a capacity limit.
+     */
+    public Map<String, Long> partitionSizes() {
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        jdbc.query("""
+            SELECT s.relname, s.n_live_tup
+            FROM pg_inherits i
+            JOIN pg_stat_user_tables s ON s.relid = i.inhrelid
+            WHERE i.inhparent = 'cache_entries'::regclass
+            ORDER BY s.relname
+            """,
+            (rs, rowNum) -> Map.entry(rs.getString("relname"), rs.getLong("n_live_tup"))
+        ).forEach(e -> sizes.put(e.getKey(), e.getValue()));
+        return sizes;
+    }
+
+    /**
+     * Evict up to {@code count} rows from one partition, choosing victims from a random
+     * sample of {@code sampleRows} rows (like Redis {@code maxmemory-samples}).
+     * {@code SYSTEM_ROWS} reads random pages until it has that many rows, so the cost is
+     * bounded by the sample size, not the partition size. Expired rows go first;
+     * then LRU picks the least recently accessed, LFU the lowest hit count decayed by
+     * {@code halfLifeSeconds} of idleness, so formerly hot keys eventually cool down.
+     * Evicted values are still correct, so no NOTIFY: near caches age them out.
+     *
+     * @param partition a name returned by {@link #partitionSizes()}
+     */
+    public int evictSampled(String partition, int count, int sampleRows, boolean lfu, long halfLifeSeconds) {
+        String score = lfu
+            ? "hits * power(0.5, EXTRACT(EPOCH FROM NOW() - last_accessed) / %d)".formatted(halfLifeSeconds)
+            : "last_accessed";
+        return jdbc.update("""
+            WITH victims AS (
+                SELECT key FROM "%1$s" TABLESAMPLE SYSTEM_ROWS (?)
+                ORDER BY expires_at < NOW() DESC NULLS LAST, %2$s
+                LIMIT ?
+            )
+            DELETE FROM "%1$s" c
+            USING victims v
+            WHERE c.key = v.key
+            """.formatted(partition.replace("\"", "\"\""), score),
+            sampleRows, count
+        );
+    }
+
+    /** How long the oldest expired entry has been waiting for eviction; empty when none are. */
+    public Optional<Double> oldestExpiredAgeSeconds() {
+        return jdbc.query("""
+            SELECT EXTRACT(EPOCH FROM NOW() - expires_at) AS age
+            FROM cache_entries
+            WHERE expires_at < NOW()
+            ORDER BY expires_at
+            LIMIT 1
+            """,
+            (rs, rowNum) -> rs.getDouble("age")
+        ).stream().findFirst();
     }
 }
@@ -0,0 +1,114 @@
+package org.tobenamed.justusepostgres.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Repository for the transactional outbox (replaces Debezium + Kafka Connect outbox routing).
+ *
+ * <h3>Why an outbox</h3>
+ * <ul>
+ *   <li>The outbox row is written with the caller's JdbcTemplate connection, so it commits
+ *       or rolls back together with the domain write — no dual-write race</li>
+ *   <li>The insert is tiny (no NOTIFY, no dequeue index), keeping the domain transaction short</li>
+ *   <li>A relay moves committed rows to {@code message_queue} in batches, in outbox order</li>
+ *   <li>Only one relay runs at a time across all instances ({@link #tryLockRelay}), so
+ *       batches reach {@code message_queue} in outbox order and FIFO groups keep their order</li>
+ * </ul>
+ */
+@Repository
+public class OutboxRepository {
+
+    /** Key of the advisory lock that makes the relay a cluster-wide singleton. */
+    private static final int RELAY_LOCK_KEY = 0x6f757462; // "outb"
+
+    private final JdbcTemplate jdbc;
+
+    public OutboxRepository(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /** Record a message to be enqueued once the surrounding transaction commits. */
+    public Long insert(String queue, String jsonPayload, int priority, String groupKey) {
+        return jdbc.queryForObject("""
+            INSERT INTO message_outbox (queue, payload, priority, group_key)
+            VALUES (?, ?::jsonb, ?, ?)
+            RETURNING id
+            """,
+            Long.class,
+            queue, jsonPayload, priority, groupKey
+        );
+    }
+
+    /**
+     * Try to become the one relay across all instances, until the current transaction ends.
+     * Returns false immediately if another relay holds it.
+     */
+    public boolean tryLockRelay() {
+        return Boolean.TRUE.equals(jdbc.queryForObject(
+            "SELECT pg_try_advisory_xact_lock(?)",
+            Boolean.class,
+            RELAY_LOCK_KEY
+        ));
+    }
+
+    /**
+     * Move up to {@code batchSize} outbox rows to {@code message_queue} in one statement.
+     *
+     * DELETE ... RETURNING and INSERT run in the same statement, so a row is either still in
+     * the outbox or already enqueued — never both, never neither. Messages are inserted in
+     * outbox id order and keep their original {@code created_at}. Receiving queues are NOTIFYed.
+     * <p>
+     * Call it in a transaction that holds {@link #tryLockRelay}: two relays running side by
+     * side could commit their batches out of order, and a later message of a FIFO group
+     * would overtake an earlier one. Taking the lock first also means this statement's
+     * snapshot includes everything the previous relay committed.
+     *
+     * @return number of relayed messages per queue
+     */
+    public Map<String, Integer> relay(int batchSize) {
+        Map<String, Integer> relayed = new LinkedHashMap<>();
+        jdbc.query("""
+            WITH batch AS (
+                DELETE FROM message_outbox
+                WHERE id IN (
+                    SELECT id FROM message_outbox
+                    ORDER BY id
+                    LIMIT ?
+                )
+                RETURNING id, queue, payload, priority, group_key, created_at
+            ), enqueued AS (
+                INSERT INTO message_queue (queue, payload, priority, group_key, created_at)
+                SELECT queue, payload, priority, group_key, created_at
+                FROM batch
+                ORDER BY id
+                RETURNING queue
+            )
+            SELECT r.queue, r.count
+            FROM (SELECT queue, COUNT(*) AS count FROM enqueued GROUP BY queue) r,
+                 pg_notify('message_queue', r.queue)
+            """,
+            rs -> {
+                relayed.put(rs.getString("queue"), rs.getInt("count"));
+            },
+            batchSize
+        );
+        return relayed;
+    }
+
+    /** Age of the oldest row still waiting in the outbox; empty when the outbox is drained. */
+    public Optional<Double> oldestAgeSeconds() {
+        return jdbc.query("""
+            SELECT EXTRACT(EPOCH FROM NOW() - created_at) AS age
+            FROM message_outbox
+            ORDER BY id
+            LIMIT 1
+            """,
+            (rs, rowNum) -> rs.getDouble("age")
+        ).stream().findFirst();
+    }
+}
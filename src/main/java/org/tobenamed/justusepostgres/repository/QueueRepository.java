@@ -1,11 +1,24 @@
 package org.tobenamed.justusepostgres.repository;
 
+import org.tobenamed.justusepostgres.model.QueueAck;
 import org.tobenamed.justusepostgres.model.QueueMessage;
+import org.tobenamed.justusepostgres.model.QueueSettings;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
 
 /**
  * Repository for message queue operations using SKIP LOCKED.
@@ -13,8 +26,14 @@ import java.util.Optional;
  * <h3>How it replaces Kafka / RabbitMQ / SQS</h3>
  * <ul>
  *   <li>{@code FOR UPDATE SKIP LOCKED} — workers grab different rows without blocking</li>
- *   <li>Visibility timeout — if a worker crashes, the row becomes available again</li>
- *   <li>Dead-letter support — messages that fail N times are marked 'failed'</li>
+ *   <li>Visibility timeout — claimed rows carry a {@code lease_until} deadline; if a worker
+ *       crashes the lease lapses and the row becomes available again</li>
+ *   <li>Heartbeats — long jobs extend their lease instead of being handed to a second worker</li>
+ *   <li>Receipts — every claim gets a fresh {@code receipt}; acks, nacks and heartbeats must
+ *       present it, so a worker whose lease lapsed cannot touch the next worker's claim</li>
+ *   <li>Retries — failed attempts are rescheduled with exponential backoff + jitter</li>
+ *   <li>Dead-letter queues — messages that fail N times move to {@code <queue>.dlq}</li>
+ *   <li>FIFO groups — at most one in-flight message per {@code group_key}, groups in parallel</li>
  *   <li>Exactly-once processing — dequeue + business logic in one transaction</li>
  * </ul>
  *
@@ -33,21 +52,148 @@ import java.util.Optional;
 @Repository
 public class QueueRepository {
 
+    /** NOTIFY channel used to wake long-polling consumers; the payload is the queue name. */
+    public static final String NOTIFY_CHANNEL = "message_queue";
+
+    private static final RowMapper<QueueMessage> MESSAGE_MAPPER = (rs, rowNum) -> new QueueMessage(
+        rs.getLong("id"),
+        rs.getString("queue"),
+        rs.getString("payload"),
+        rs.getString("status"),
+        rs.getInt("attempts"),
+        rs.getTimestamp("created_at").toInstant(),
+        rs.getTimestamp("processed_at") != null
+            ? rs.getTimestamp("processed_at").toInstant() : null,
+        rs.getTimestamp("lease_until") != null
+            ? rs.getTimestamp("lease_until").toInstant() : null,
+        rs.getInt("priority"),
+        rs.getTimestamp("visible_at") != null
+            ? rs.getTimestamp("visible_at").toInstant() : null,
+        rs.getString("group_key"),
+        rs.getObject("receipt", UUID.class)
+    );
+
+    /**
+     * Dequeue filter for FIFO groups (like SQS FIFO MessageGroupId): a grouped message is
+     * claimable only while it is the oldest unfinished message of its group, so each group
+     * has at most one message in flight while different groups are processed in parallel.
+     * Retries ('scheduled') keep the head, so order survives failures.
+     * <p>
+     * {@code group_head} is maintained by the {@code message_queue_group_head} trigger (see
+     * {@code init.sql}) and is part of the {@code idx_mq_pending} predicate, so messages
+     * queued behind their group's head are not in the dequeue index at all: with 10k groups
+     * of deep backlogs the claim still reads only the first N index entries instead of
+     * probing and rejecting every non-head it walks past. Expects the row aliased as {@code m}.
+     */
+    private static final String GROUP_HEAD = """
+        (m.group_key IS NULL OR m.group_head)
+        """;
+
+    /** Advisory lock key that makes {@link #foldDepthDeltas} a singleton across instances. */
+    private static final long DEPTH_FOLD_LOCK_KEY = 0x71646570; // "qdep"
+
+    /**
+     * Shared failure transition for {@link #fail}, {@link #failBatch} and {@link #requeueStale}.
+     * Expects a CTE {@code t} with the target ids and their effective retry policy. SET
+     * expressions see the row's old values, so {@code m.queue} / {@code m.attempts} are pre-update.
+     */
+    private static final String FAIL_TRANSITION = """
+        UPDATE message_queue m
+        SET status = CASE
+                WHEN m.attempts < t.max_attempts THEN 'scheduled'
+                WHEN m.dead_lettered_from IS NULL THEN 'pending'
+                ELSE 'failed'
+            END,
+            visible_at = CASE
+                WHEN m.attempts < t.max_attempts THEN NOW() + make_interval(secs =>
+                    LEAST(t.backoff_max, t.backoff_base * power(2, m.attempts - 1)) * (0.5 + random() / 2))
+            END,
+            queue = CASE
+                WHEN m.attempts >= t.max_attempts AND m.dead_lettered_from IS NULL THEN t.dead_letter_queue
+                ELSE m.queue
+            END,
+            dead_lettered_from = CASE
+                WHEN m.attempts >= t.max_attempts AND m.dead_lettered_from IS NULL THEN m.queue
+                ELSE m.dead_lettered_from
+            END,
+            attempts = CASE
+                WHEN m.attempts >= t.max_attempts AND m.dead_lettered_from IS NULL THEN 0
+                ELSE m.attempts
+            END,
+            processed_at = NOW(),
+            lease_until = NULL,
+            receipt = NULL
+        FROM t
+        WHERE m.id = t.id
+        """;
+
+    /**
+     * Final SELECT after a {@link #FAIL_TRANSITION} CTE named {@code failed}: returns its rows
+     * and NOTIFYs the dead-letter queue of every message that just landed there ('pending').
+     */
+    private static final String NOTIFY_DEAD_LETTERED = """
+        SELECT f.id, f.queue, f.status, f.visible_at, f.source_queue
+        FROM failed f
+        LEFT JOIN LATERAL (SELECT pg_notify('message_queue', f.queue) WHERE f.status = 'pending') n ON true
+        """;
+
     private final JdbcTemplate jdbc;
 
     public QueueRepository(JdbcTemplate jdbc) {
         this.jdbc = jdbc;
     }
 
-    /** Enqueue a new message (like RabbitMQ basic_publish or SQS SendMessage). */
-    public Long send(String queue, String jsonPayload) {
+    /**
+     * Enqueue a new message (like RabbitMQ basic_publish or SQS SendMessage).
+     * The same statement issues {@code pg_notify} so parked long-poll receivers wake up
+     * as soon as the insert commits.
+     *
+     * Higher {@code priority} is dequeued first (like RabbitMQ priority queues). A future
+     * {@code deliverAt} (like SQS DelaySeconds) stores the message as 'scheduled' with
+     * {@code visible_at = deliverAt}, so it stays out of the dequeue index until the
+     * promoter makes it 'pending'.
+     */
+    public Long send(String queue, String jsonPayload, int priority, Instant deliverAt, String groupKey) {
+        boolean delayed = deliverAt != null && deliverAt.isAfter(Instant.now());
         return jdbc.queryForObject("""
-            INSERT INTO message_queue (queue, payload, status)
-            VALUES (?, ?::jsonb, 'pending')
-            RETURNING id
+            WITH msg AS (
+                INSERT INTO message_queue (queue, payload, status, priority, visible_at, group_key)
+                VALUES (?, ?::jsonb, ?, ?, ?, ?)
+                RETURNING id, queue
+            )
+            SELECT msg.id FROM msg, pg_notify('message_queue', msg.queue)
             """,
             Long.class,
-            queue, jsonPayload
+            queue, jsonPayload, delayed ? "scheduled" : "pending", priority,
+            delayed ? Timestamp.from(deliverAt) : null, groupKey
+        );
+    }
+
+    /**
+     * Enqueue many messages in one statement (like SQS SendMessageBatch).
+     *
+     * Payloads are bound as a single {@code text[]} parameter and expanded with
+     * {@code unnest ... WITH ORDINALITY}, so the whole batch costs one round trip and one
+     * commit. Ids come from the BIGSERIAL in array order and are returned ascending, so
+     * {@code ids[i]} belongs to {@code payloads[i]}.
+     */
+    public List<Long> sendBatch(String queue, List<String> jsonPayloads, int priority, Instant deliverAt, String groupKey) {
+        boolean delayed = deliverAt != null && deliverAt.isAfter(Instant.now());
+        return jdbc.queryForList("""
+            WITH msg AS (
+                INSERT INTO message_queue (queue, payload, status, priority, visible_at, group_key)
+                SELECT ?, p.payload::jsonb, ?, ?, ?, ?
+                FROM unnest(?::text[]) WITH ORDINALITY AS p(payload, ord)
+                ORDER BY p.ord
+                RETURNING id, queue
+            )
+            SELECT msg.id FROM msg, pg_notify('message_queue', msg.queue)
+            ORDER BY msg.id
+            """,
+            Long.class,
+            queue, delayed ? "scheduled" : "pending", priority,
+            delayed ? Timestamp.from(deliverAt) : null, groupKey,
+            jsonPayloads.toArray(new String[0])
         );
     }
 
@@ -55,123 +201,545 @@ public class QueueRepository {
      * Dequeue one message using SKIP LOCKED (like SQS ReceiveMessage).
      *
      * This atomically:
-     * 1. Finds the oldest pending message in the queue
+     * 1. Finds the highest-priority, oldest pending message in the queue
      * 2. Locks it so no other worker can grab it
-     * 3. Marks it as 'processing'
+     * 3. Marks it as 'processing' and leases it until {@code lease_until}
+     *    (now + the queue's visibility timeout) under a new {@code receipt}
      * 4. Returns it
      *
      * If the transaction rolls back, the message becomes 'pending' again (automatic retry).
      */
-    public Optional<QueueMessage> receive(String queue) {
+    public Optional<QueueMessage> receive(String queue, int defaultVisibilitySeconds) {
         List<QueueMessage> results = jdbc.query("""
             UPDATE message_queue
             SET status = 'processing',
                 attempts = attempts + 1,
-                processed_at = NOW()
+                processed_at = NOW(),
+                lease_until = NOW() + make_interval(secs => COALESCE(
+                    (SELECT visibility_timeout_seconds FROM queue_settings WHERE queue = ?), ?)),
+                receipt = gen_random_uuid()
             WHERE id = (
-                SELECT id FROM message_queue
-                WHERE queue = ? AND status = 'pending'
-                ORDER BY created_at
+                SELECT m.id FROM message_queue m
+                WHERE m.queue = ? AND m.status = 'pending' AND
+            """ + GROUP_HEAD + """
+                ORDER BY m.priority DESC, m.created_at, m.id
                 FOR UPDATE SKIP LOCKED
                 LIMIT 1
             )
-            RETURNING id, queue, payload::text, status, attempts, created_at, processed_at
+            RETURNING id, queue, payload::text, status, attempts, created_at, processed_at, lease_until,
+                      priority, visible_at, group_key, receipt
             """,
-            (rs, rowNum) -> new QueueMessage(
-                rs.getLong("id"),
-                rs.getString("queue"),
-                rs.getString("payload"),
-                rs.getString("status"),
-                rs.getInt("attempts"),
-                rs.getTimestamp("created_at").toInstant(),
-                rs.getTimestamp("processed_at") != null
-                    ? rs.getTimestamp("processed_at").toInstant() : null
-            ),
-            queue
+            MESSAGE_MAPPER,
+            queue, defaultVisibilitySeconds, queue
         );
         return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
     }
 
-    /** Mark a message as completed (like SQS DeleteMessage). */
-    public boolean complete(Long messageId) {
-        return jdbc.update("""
-            UPDATE message_queue SET status = 'completed', processed_at = NOW()
-            WHERE id = ? AND status = 'processing'
-            """, messageId) > 0;
+    /**
+     * Dequeue up to {@code max} messages in a single statement (like SQS ReceiveMessage
+     * with MaxNumberOfMessages).
+     *
+     * The CTE locks the oldest pending rows with SKIP LOCKED, the UPDATE claims them,
+     * and the outer SELECT restores priority + FIFO order (RETURNING order is not guaranteed).
+     * One round trip claims the whole batch, so workers spend far less time holding
+     * pool connections than with repeated single-message receives.
+     */
+    public List<QueueMessage> receiveBatch(String queue, int max, int defaultVisibilitySeconds) {
+        return jdbc.query("""
+            WITH next AS (
+                SELECT m.id FROM message_queue m
+                WHERE m.queue = ? AND m.status = 'pending' AND
+            """ + GROUP_HEAD + """
+                ORDER BY m.priority DESC, m.created_at, m.id
+                FOR UPDATE SKIP LOCKED
+                LIMIT ?
+            ), lease AS (
+                SELECT NOW() + make_interval(secs => COALESCE(
+                    (SELECT visibility_timeout_seconds FROM queue_settings WHERE queue = ?), ?)) AS until
+            ), claimed AS (
+                UPDATE message_queue m
+                SET status = 'processing',
+                    attempts = m.attempts + 1,
+                    processed_at = NOW(),
+                    lease_until = lease.until,
+                    receipt = gen_random_uuid()
+                FROM next, lease
+                WHERE m.id = next.id
+                RETURNING m.id, m.queue, m.payload::text AS payload, m.status, m.attempts,
+                          m.created_at, m.processed_at, m.lease_until, m.priority, m.visible_at, m.group_key,
+                          m.receipt
+            )
+            SELECT id, queue, payload, status, attempts, created_at, processed_at, lease_until,
+                   priority, visible_at, group_key, receipt
+            FROM claimed
+            ORDER BY priority DESC, created_at, id
+            """,
+            MESSAGE_MAPPER,
+            queue, max, queue, defaultVisibilitySeconds
+        );
     }
 
-    /** Mark a message as failed (dead-letter). */
-    public boolean fail(Long messageId) {
-        return jdbc.update("""
-            UPDATE message_queue SET status = 'failed', processed_at = NOW()
-            WHERE id = ? AND status = 'processing'
-            """, messageId) > 0;
+    /**
+     * Heartbeat: push a claimed message's lease out to now + {@code seconds}
+     * (like SQS ChangeMessageVisibility). Only succeeds while the lease is still held under
+     * {@code receipt} — once it has lapsed the message may already belong to another worker.
+     *
+     * @return the new lease deadline, or empty if the lease was lost
+     */
+    public Optional<Instant> extendLease(Long messageId, UUID receipt, int seconds) {
+        List<Instant> results = jdbc.query("""
+            UPDATE message_queue
+            SET lease_until = NOW() + make_interval(secs => ?)
+            WHERE id = ? AND receipt = ? AND status = 'processing' AND lease_until > NOW()
+            RETURNING lease_until
+            """,
+            (rs, rowNum) -> rs.getTimestamp("lease_until").toInstant(),
+            seconds, messageId, receipt
+        );
+        return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
     }
 
-    /** Requeue messages stuck in 'processing' for longer than the visibility timeout. */
-    public int requeueStale(String queue, int timeoutSeconds) {
+    /**
+     * Mark a message as completed (like SQS DeleteMessage). A lapsed lease can still be
+     * completed as long as nobody re-claimed the message, i.e. {@code receipt} still matches.
+     */
+    public boolean complete(Long messageId, UUID receipt) {
         return jdbc.update("""
             UPDATE message_queue
-            SET status = 'pending', processed_at = NULL
-            WHERE queue = ? AND status = 'processing'
-              AND processed_at < NOW() - (? || ' seconds')::interval
+            SET status = 'completed', processed_at = NOW(), lease_until = NULL, receipt = NULL
+            WHERE id = ? AND receipt = ? AND status = 'processing'
+            """, messageId, receipt) > 0;
+    }
+
+    /**
+     * Complete many messages in one statement (like SQS DeleteMessageBatch).
+     * Ids and receipts are bound as two parallel arrays and zipped with {@code unnest};
+     * rows are locked in id order so two overlapping batches cannot deadlock.
+     *
+     * @return the ids that were in flight under the given receipt and are now completed
+     */
+    public List<Long> completeBatch(List<QueueAck> acks) {
+        return jdbc.queryForList("""
+            WITH t AS (
+                SELECT m.id FROM message_queue m
+                JOIN unnest(?::bigint[], ?::uuid[]) AS a(id, receipt)
+                  ON m.id = a.id AND m.receipt = a.receipt
+                WHERE m.status = 'processing'
+                ORDER BY m.id
+                FOR UPDATE OF m
+            )
+            UPDATE message_queue m
+            SET status = 'completed', processed_at = NOW(), lease_until = NULL, receipt = NULL
+            FROM t
+            WHERE m.id = t.id
+            RETURNING m.id
+            """,
+            Long.class,
+            ackIds(acks), ackReceipts(acks)
+        );
+    }
+
+    /**
+     * Current lease deadlines of the given claims that are still held and not yet lapsed,
+     * e.g. after heartbeats extended them. Claims that lapsed, finished or were re-claimed
+     * under another receipt are absent.
+     */
+    public Map<Long, Instant> activeLeases(List<QueueAck> acks) {
+        Map<Long, Instant> leases = new HashMap<>();
+        jdbc.query("""
+            SELECT m.id, m.lease_until FROM message_queue m
+            JOIN unnest(?::bigint[], ?::uuid[]) AS a(id, receipt)
+              ON m.id = a.id AND m.receipt = a.receipt
+            WHERE m.status = 'processing' AND m.lease_until > NOW()
             """,
-            queue, timeoutSeconds
+            rs -> {
+                leases.put(rs.getLong("id"), rs.getTimestamp("lease_until").toInstant());
+            },
+            ackIds(acks), ackReceipts(acks)
         );
+        return leases;
     }
 
-    /** Get queue depth by status. */
-    public List<java.util.Map<String, Object>> stats(String queue) {
+    /**
+     * Hand claimed messages straight back to 'pending' without counting the attempt (like SQS
+     * ChangeMessageVisibility to 0), e.g. when the receiver went away before they were delivered.
+     * Only the current receipt releases a claim; released queues are NOTIFYed.
+     *
+     * @return number of released messages
+     */
+    public int release(List<QueueAck> acks) {
         return jdbc.queryForList("""
-            SELECT status, COUNT(*) as count
-            FROM message_queue
+            WITH t AS (
+                SELECT m.id FROM message_queue m
+                JOIN unnest(?::bigint[], ?::uuid[]) AS a(id, receipt)
+                  ON m.id = a.id AND m.receipt = a.receipt
+                WHERE m.status = 'processing'
+                ORDER BY m.id
+                FOR UPDATE OF m
+            ), released AS (
+                UPDATE message_queue m
+                SET status = 'pending', attempts = GREATEST(m.attempts - 1, 0),
+                    lease_until = NULL, receipt = NULL
+                FROM t
+                WHERE m.id = t.id
+                RETURNING m.queue
+            )
+            SELECT r.count
+            FROM (SELECT queue, COUNT(*) AS count FROM released GROUP BY queue) r,
+                 pg_notify('message_queue', r.queue)
+            """,
+            Long.class,
+            ackIds(acks), ackReceipts(acks)
+        ).stream().mapToInt(Long::intValue).sum();
+    }
+
+    /**
+     * Record a failed attempt (like SQS letting the visibility timeout lapse).
+     *
+     * Depending on the queue's retry policy the message is either:
+     * <ul>
+     *   <li>'scheduled' for a retry at {@code visible_at} (exponential backoff + jitter)</li>
+     *   <li>moved to the dead-letter queue as 'pending' once {@code max_attempts} is reached</li>
+     *   <li>'failed' for good if it already came from a dead-letter queue</li>
+     * </ul>
+     *
+     * A message moved to a dead-letter queue is NOTIFYed on that queue, so parked DLQ
+     * consumers wake up like they do for a send.
+     *
+     * @return the message's new queue, status and visible_at plus the {@code source_queue} it
+     *         failed in, or empty if it was not in flight under {@code receipt}
+     */
+    public Optional<Map<String, Object>> fail(Long messageId, UUID receipt, QueueSettings defaults) {
+        List<Map<String, Object>> results = jdbc.queryForList("""
+            WITH t AS (
+                SELECT m.id, m.queue AS source_queue,
+                       COALESCE(s.max_attempts, ?) AS max_attempts,
+                       COALESCE(s.backoff_base_seconds, ?) AS backoff_base,
+                       COALESCE(s.backoff_max_seconds, ?) AS backoff_max,
+                       COALESCE(s.dead_letter_queue, m.queue || '.dlq') AS dead_letter_queue
+                FROM message_queue m
+                LEFT JOIN queue_settings s ON s.queue = m.queue
+                WHERE m.id = ? AND m.receipt = ? AND m.status = 'processing'
+                FOR UPDATE OF m
+            ), failed AS (
+            """ + FAIL_TRANSITION + """
+                RETURNING m.id, m.queue, m.status, m.visible_at, t.source_queue
+            )
+            """ + NOTIFY_DEAD_LETTERED,
+            defaults.maxAttempts(), defaults.backoffBaseSeconds(), defaults.backoffMaxSeconds(),
+            messageId, receipt
+        );
+        return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
+    }
+
+    /**
+     * Record a failed attempt for many messages in one statement; same transition as {@link #fail}.
+     *
+     * @return one row (id, queue, status, visible_at, source_queue) per message that was in
+     *         flight under its receipt
+     */
+    public List<Map<String, Object>> failBatch(List<QueueAck> acks, QueueSettings defaults) {
+        return jdbc.queryForList("""
+            WITH t AS (
+                SELECT m.id, m.queue AS source_queue,
+                       COALESCE(s.max_attempts, ?) AS max_attempts,
+                       COALESCE(s.backoff_base_seconds, ?) AS backoff_base,
+                       COALESCE(s.backoff_max_seconds, ?) AS backoff_max,
+                       COALESCE(s.dead_letter_queue, m.queue || '.dlq') AS dead_letter_queue
+                FROM message_queue m
+                JOIN unnest(?::bigint[], ?::uuid[]) AS a(id, receipt)
+                  ON m.id = a.id AND m.receipt = a.receipt
+                LEFT JOIN queue_settings s ON s.queue = m.queue
+                WHERE m.status = 'processing'
+                ORDER BY m.id
+                FOR UPDATE OF m
+            ), failed AS (
+            """ + FAIL_TRANSITION + """
+                RETURNING m.id, m.queue, m.status, m.visible_at, t.source_queue
+            )
+            """ + NOTIFY_DEAD_LETTERED,
+            defaults.maxAttempts(), defaults.backoffBaseSeconds(), defaults.backoffMaxSeconds(),
+            ackIds(acks), ackReceipts(acks)
+        );
+    }
+
+    /**
+     * Promote scheduled retries whose backoff has elapsed back to 'pending'.
+     * Range scan over {@code idx_mq_scheduled}; promoted queues are NOTIFYed.
+     *
+     * @return number of promoted messages per queue
+     */
+    public Map<String, Integer> promoteScheduled(int batchSize) {
+        Map<String, Integer> promoted = new LinkedHashMap<>();
+        jdbc.query("""
+            WITH due AS (
+                SELECT id FROM message_queue
+                WHERE status = 'scheduled' AND visible_at <= NOW()
+                ORDER BY visible_at
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            ), promoted AS (
+                UPDATE message_queue m
+                SET status = 'pending', visible_at = NULL
+                FROM due
+                WHERE m.id = due.id
+                RETURNING m.queue
+            )
+            SELECT r.queue, r.count
+            FROM (SELECT queue, COUNT(*) AS count FROM promoted GROUP BY queue) r,
+                 pg_notify('message_queue', r.queue)
+            """,
+            rs -> {
+                promoted.put(rs.getString("queue"), rs.getInt("count"));
+            },
+            batchSize
+        );
+        return promoted;
+    }
+
+    /**
+     * Treat every message whose lease has lapsed as a failed attempt — across ALL queues in
+     * one statement. The partial index {@code idx_mq_lease} covers only leased rows, so the
+     * sweep is a range scan over expired deadlines. A crashed worker therefore counts toward
+     * {@code max_attempts}, and poison messages end up in the dead-letter queue, which is NOTIFYed.
+     *
+     * @return rows of (source queue, new status, count)
+     */
+    public List<Map<String, Object>> requeueStale(QueueSettings defaults) {
+        return jdbc.queryForList("""
+            WITH t AS (
+                SELECT m.id, m.queue AS source_queue,
+                       COALESCE(s.max_attempts, ?) AS max_attempts,
+                       COALESCE(s.backoff_base_seconds, ?) AS backoff_base,
+                       COALESCE(s.backoff_max_seconds, ?) AS backoff_max,
+                       COALESCE(s.dead_letter_queue, m.queue || '.dlq') AS dead_letter_queue
+                FROM message_queue m
+                LEFT JOIN queue_settings s ON s.queue = m.queue
+                WHERE m.status = 'processing' AND m.lease_until < NOW()
+                FOR UPDATE OF m SKIP LOCKED
+            ), swept AS (
+            """ + FAIL_TRANSITION + """
+                RETURNING t.source_queue, m.queue, m.status
+            )
+            SELECT r.source_queue AS queue, r.status, r.count
+            FROM (SELECT source_queue, queue, status, COUNT(*) AS count
+                  FROM swept
+                  GROUP BY source_queue, queue, status) r
+            LEFT JOIN LATERAL (SELECT pg_notify('message_queue', r.queue) WHERE r.status = 'pending') n ON true
+            """,
+            defaults.maxAttempts(), defaults.backoffBaseSeconds(), defaults.backoffMaxSeconds()
+        );
+    }
+
+    /** Get a queue's settings, if any were stored. */
+    public Optional<QueueSettings> getSettings(String queue) {
+        List<QueueSettings> results = jdbc.query("""
+            SELECT queue, visibility_timeout_seconds, max_attempts,
+                   backoff_base_seconds, backoff_max_seconds, dead_letter_queue
+            FROM queue_settings
             WHERE queue = ?
-            GROUP BY status
-            ORDER BY status
-            """, queue);
+            """,
+            (rs, rowNum) -> new QueueSettings(
+                rs.getString("queue"),
+                rs.getInt("visibility_timeout_seconds"),
+                rs.getInt("max_attempts"),
+                rs.getInt("backoff_base_seconds"),
+                rs.getInt("backoff_max_seconds"),
+                rs.getString("dead_letter_queue")
+            ),
+            queue
+        );
+        return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
     }
 
-    /** List messages in a queue with optional status filter. */
-    public List<QueueMessage> list(String queue, String status, int limit) {
+    /** Create or replace a queue's settings. */
+    public void saveSettings(QueueSettings settings) {
+        jdbc.update("""
+            INSERT INTO queue_settings (queue, visibility_timeout_seconds, max_attempts,
+                                        backoff_base_seconds, backoff_max_seconds, dead_letter_queue)
+            VALUES (?, ?, ?, ?, ?, ?)
+            ON CONFLICT (queue) DO UPDATE
+            SET visibility_timeout_seconds = EXCLUDED.visibility_timeout_seconds,
+                max_attempts = EXCLUDED.max_attempts,
+                backoff_base_seconds = EXCLUDED.backoff_base_seconds,
+                backoff_max_seconds = EXCLUDED.backoff_max_seconds,
+                dead_letter_queue = EXCLUDED.dead_letter_queue,
+                updated_at = NOW()
+            """,
+            settings.queue(), settings.visibilityTimeoutSeconds(), settings.maxAttempts(),
+            settings.backoffBaseSeconds(), settings.backoffMaxSeconds(), settings.deadLetterQueue()
+        );
+    }
+
+    /**
+     * Move completed messages older than {@code olderThanSeconds} into the partitioned
+     * archive. One statement deletes from the hot table and inserts into the archive,
+     * bounded by {@code batchSize} so each call holds locks only briefly.
+     *
+     * @return number of messages archived
+     */
+    public int archiveCompleted(int olderThanSeconds, int batchSize) {
+        return jdbc.update("""
+            WITH moved AS (
+                DELETE FROM message_queue
+                WHERE id IN (
+                    SELECT id FROM message_queue
+                    WHERE status = 'completed'
+                      AND processed_at < NOW() - (? || ' seconds')::interval
+                    LIMIT ?
+                    FOR UPDATE SKIP LOCKED
+                )
+                RETURNING id, queue, payload, status, attempts, priority, group_key, dead_lettered_from,
+                          created_at, processed_at
+            )
+            INSERT INTO message_queue_archive (id, queue, payload, status, attempts, priority, group_key,
+                                               dead_lettered_from, created_at, processed_at)
+            SELECT id, queue, payload, status, attempts, priority, group_key, dead_lettered_from,
+                   created_at, processed_at
+            FROM moved
+            """,
+            olderThanSeconds, batchSize
+        );
+    }
+
+    /**
+     * Create the archive partitions for today and the next {@code daysAhead} days (no-op for
+     * those that exist). Days come from the database's {@code CURRENT_DATE}, the same clock
+     * {@link #dropArchivePartitionsOlderThan} and the partition bounds use, so a JVM running
+     * in another time zone cannot create partitions for the wrong day.
+     */
+    public void createArchivePartitions(int daysAhead) {
+        List<LocalDate> days = jdbc.queryForList(
+            "SELECT CURRENT_DATE + d FROM generate_series(0, ?) AS d", LocalDate.class, daysAhead);
+        for (LocalDate day : days) {
+            jdbc.execute("""
+                CREATE TABLE IF NOT EXISTS message_queue_archive_%s PARTITION OF message_queue_archive
+                FOR VALUES FROM ('%s') TO ('%s')
+                """.formatted(day.format(DateTimeFormatter.BASIC_ISO_DATE), day, day.plusDays(1)));
+        }
+    }
+
+    /**
+     * Drop daily archive partitions older than {@code retentionDays}.
+     * Dropping a partition is instant and leaves no dead tuples behind.
+     *
+     * @return names of the dropped partitions
+     */
+    public List<String> dropArchivePartitionsOlderThan(int retentionDays) {
+        List<String> expired = jdbc.queryForList("""
+            SELECT c.relname
+            FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = 'message_queue_archive'::regclass
+              AND c.relname ~ '^message_queue_archive_[0-9]{8}$'
+              AND to_date(right(c.relname, 8), 'YYYYMMDD') < CURRENT_DATE - ?
+            ORDER BY c.relname
+            """,
+            String.class,
+            retentionDays
+        );
+        // Names come from the catalog and match the pattern above, so they are safe to inline
+        expired.forEach(name -> jdbc.execute("DROP TABLE IF EXISTS " + name));
+        return expired;
+    }
+
+    /**
+     * Depth by status for every queue: the totals in {@code queue_depth} plus the deltas the
+     * {@code message_queue_depth} triggers appended since the last {@link #foldDepthDeltas},
+     * so the counts are exact even if no fold has run. The cost is independent of how many
+     * messages there are.
+     */
+    public Map<String, Map<String, Long>> depthByQueue() {
+        Map<String, Map<String, Long>> depth = new HashMap<>();
+        jdbc.query("""
+            SELECT queue, status, SUM(count) AS count
+            FROM (SELECT queue, status, count FROM queue_depth
+                  UNION ALL
+                  SELECT queue, status, delta FROM queue_depth_delta) d
+            GROUP BY queue, status
+            HAVING SUM(count) <> 0
+            """,
+            rs -> {
+                depth.computeIfAbsent(rs.getString("queue"), q -> new TreeMap<>())
+                    .put(rs.getString("status"), rs.getLong("count"));
+            }
+        );
+        return depth;
+    }
+
+    /**
+     * Move committed depth deltas into the {@code queue_depth} totals in one statement.
+     * Only one instance folds at a time (a transaction-scoped advisory lock; the others skip),
+     * so two folds never lock the same rows in different orders. Deltas committed while the
+     * fold runs are not in its snapshot and are folded next time.
+     *
+     * @return number of delta rows folded
+     */
+    public int foldDepthDeltas() {
+        return jdbc.queryForObject("""
+            WITH lock AS (
+                SELECT pg_try_advisory_xact_lock(?) AS held
+            ), folded AS (
+                DELETE FROM queue_depth_delta
+                WHERE (SELECT held FROM lock)
+                RETURNING queue, status, delta
+            ), totals AS (
+                INSERT INTO queue_depth AS d (queue, status, count)
+                SELECT queue, status, SUM(delta)
+                FROM folded
+                GROUP BY queue, status
+                HAVING SUM(delta) <> 0
+                ORDER BY queue, status
+                ON CONFLICT (queue, status) DO UPDATE SET count = d.count + EXCLUDED.count
+            )
+            SELECT COUNT(*) FROM folded
+            """,
+            Integer.class,
+            DEPTH_FOLD_LOCK_KEY
+        );
+    }
+
+    /**
+     * Browse messages in {@code (created_at, id)} order with keyset pagination.
+     *
+     * Pass the last row of the previous page as {@code after*}: the row-value comparison
+     * {@code (created_at, id) > (?, ?)} seeks straight to the next page in the index, so
+     * page 10,000 costs the same as page 1 — no OFFSET scan, no sort.
+     */
+    public List<QueueMessage> list(String queue, String status, Instant afterCreatedAt, Long afterId, int limit) {
+        StringBuilder where = new StringBuilder("queue = ?");
+        List<Object> args = new ArrayList<>();
+        args.add(queue);
         if (status != null && !status.isBlank()) {
-            return jdbc.query("""
-                SELECT id, queue, payload::text, status, attempts, created_at, processed_at
-                FROM message_queue
-                WHERE queue = ? AND status = ?
-                ORDER BY created_at
-                LIMIT ?
-                """,
-                (rs, rowNum) -> new QueueMessage(
-                    rs.getLong("id"),
-                    rs.getString("queue"),
-                    rs.getString("payload"),
-                    rs.getString("status"),
-                    rs.getInt("attempts"),
-                    rs.getTimestamp("created_at").toInstant(),
-                    rs.getTimestamp("processed_at") != null
-                        ? rs.getTimestamp("processed_at").toInstant() : null
-                ),
-                queue, status, limit
-            );
+            where.append(" AND status = ?");
+            args.add(status);
+        }
+        if (afterCreatedAt != null && afterId != null) {
+            where.append(" AND (created_at, id) > (?, ?)");
+            args.add(Timestamp.from(afterCreatedAt));
+            args.add(afterId);
         }
+        args.add(limit);
+        // Receipts are only handed to the worker that claimed the message, never to browsers
         return jdbc.query("""
-            SELECT id, queue, payload::text, status, attempts, created_at, processed_at
+            SELECT id, queue, payload::text, status, attempts, created_at, processed_at, lease_until,
+                   priority, visible_at, group_key, NULL::uuid AS receipt
             FROM message_queue
-            WHERE queue = ?
-            ORDER BY created_at
+            WHERE %s
+            ORDER BY created_at, id
             LIMIT ?
-            """,
-            (rs, rowNum) -> new QueueMessage(
-                rs.getLong("id"),
-                rs.getString("queue"),
-                rs.getString("payload"),
-                rs.getString("status"),
-                rs.getInt("attempts"),
-                rs.getTimestamp("created_at").toInstant(),
-                rs.getTimestamp("processed_at") != null
-                    ? rs.getTimestamp("processed_at").toInstant() : null
-            ),
-            queue, limit
+            """.formatted(where),
+            MESSAGE_MAPPER,
+            args.toArray()
         );
     }
+
+    private static Long[] ackIds(List<QueueAck> acks) {
+        return acks.stream().map(QueueAck::messageId).toArray(Long[]::new);
+    }
+
+    /** Bound as {@code text[]} and cast to {@code uuid[]} in SQL. */
+    private static String[] ackReceipts(List<QueueAck> acks) {
+        return acks.stream().map(a -> String.valueOf(a.receipt())).toArray(String[]::new);
+    }
 }
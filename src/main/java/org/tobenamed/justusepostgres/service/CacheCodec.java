@@ -0,0 +1,120 @@
+package org.tobenamed.justusepostgres.service;
+
+import com.github.luben.zstd.Zstd;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Compression for binary cache values, chosen per key prefix by {@link CacheService}.
+ *
+ * <ul>
+ *   <li>{@code LZ4} — ~GB/s in both directions, modest ratio: the default for hot keys</li>
+ *   <li>{@code ZSTD} — 2-3x slower to compress but a noticeably better ratio, for large
+ *       values where shared_buffers space and network bytes matter more than CPU</li>
+ *   <li>{@code NONE} — already-compressed data (images, gzip) or small values</li>
+ * </ul>
+ * LZ4 block output is prefixed with the 4-byte original length; Zstd frames carry it themselves.
+ * Stored bytes are not trusted: a declared size outside 0..{@value #MAX_DECODED_BYTES} is
+ * rejected before anything is allocated, and LZ4 uses the bounds-checking safe decompressor.
+ */
+public enum CacheCodec {
+
+    NONE {
+        @Override
+        public byte[] encode(byte[] data) {
+            return data;
+        }
+
+        @Override
+        public byte[] decode(byte[] stored) {
+            return stored;
+        }
+    },
+
+    LZ4 {
+        private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+        private final LZ4SafeDecompressor decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+
+        @Override
+        public byte[] encode(byte[] data) {
+            checkSize(data.length);
+            byte[] out = new byte[4 + compressor.maxCompressedLength(data.length)];
+            ByteBuffer.wrap(out).putInt(data.length);
+            int length = compressor.compress(data, 0, data.length, out, 4, out.length - 4);
+            return Arrays.copyOf(out, 4 + length);
+        }
+
+        @Override
+        public byte[] decode(byte[] stored) {
+            if (stored.length < 4) {
+                throw new IllegalStateException("Corrupt lz4 cache value: missing length prefix");
+            }
+            int length = checkStoredSize(ByteBuffer.wrap(stored).getInt());
+            byte[] out = new byte[length];
+            try {
+                int decoded = decompressor.decompress(stored, 4, stored.length - 4, out, 0, length);
+                if (decoded != length) {
+                    throw new IllegalStateException("Corrupt lz4 cache value: " + decoded + " of " + length + " bytes");
+                }
+            } catch (LZ4Exception e) {
+                throw new IllegalStateException("Corrupt lz4 cache value", e);
+            }
+            return out;
+        }
+    },
+
+    ZSTD {
+        @Override
+        public byte[] encode(byte[] data) {
+            checkSize(data.length);
+            return Zstd.compress(data, ZSTD_LEVEL);
+        }
+
+        /** Our frames always record their content size; a frame without one is rejected. */
+        @Override
+        public byte[] decode(byte[] stored) {
+            long size = Zstd.getFrameContentSize(stored);
+            if (size < 0 || size > MAX_DECODED_BYTES) {
+                throw new IllegalStateException("Corrupt zstd cache value: content size " + size);
+            }
+            return Zstd.decompress(stored, (int) size);
+        }
+    };
+
+    private static final int ZSTD_LEVEL = 3;  // zstd's default: fast, good ratio
+    /** Largest value the compressing codecs accept, so a corrupt size cannot force a huge allocation. */
+    private static final int MAX_DECODED_BYTES = 256 * 1024 * 1024;
+
+    private static void checkSize(int length) {
+        if (length > MAX_DECODED_BYTES) {
+            throw new IllegalArgumentException("Value of " + length + " bytes exceeds the "
+                + MAX_DECODED_BYTES + "-byte limit for compressed cache values");
+        }
+    }
+
+    private static int checkStoredSize(int length) {
+        if (length < 0 || length > MAX_DECODED_BYTES) {
+            throw new IllegalStateException("Corrupt cache value: declared size " + length);
+        }
+        return length;
+    }
+
+    public abstract byte[] encode(byte[] data);
+
+    public abstract byte[] decode(byte[] stored);
+
+    /** Value of the {@code codec} column. */
+    public String id() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    public static CacheCodec fromId(String id) {
+        return valueOf(id.toUpperCase(Locale.ROOT));
+    }
+}
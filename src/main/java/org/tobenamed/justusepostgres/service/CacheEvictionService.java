@@ -0,0 +1,174 @@
+package org.tobenamed.justusepostgres.service;
+
+import org.tobenamed.justusepostgres.repository.CacheRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Active expiration for {@code cache_entries} (like Redis's active expire cycle).
+ *
+ * <h3>Small batches, adaptive size</h3>
+ * One unbounded {@code DELETE ... WHERE expires_at < NOW()} after a bulk expiry locks
+ * millions of rows in one long statement. Instead each run deletes soonest-expired rows
+ * in short batches, each its own transaction:
+ * <ul>
+ *   <li>A batch faster than half the {@value #TARGET_BATCH_MS} ms target doubles the next
+ *       batch; a slower one halves it — so batches stay short whether the table is idle
+ *       or under write load</li>
+ *   <li>A run stops after {@value #MAX_RUN_MS} ms and yields the scheduler thread; the
+ *       backlog is picked up {@value #RUN_INTERVAL_MS} ms later</li>
+ * </ul>
+ * Expired rows are already invisible to reads, so a backlog costs disk, not correctness.
+ *
+ * <h3>Capacity limit (like Redis {@code maxmemory})</h3>
+ * With {@code cache.max-entries} set, each hash partition may hold its share of the limit.
+ * Partitions over their share are trimmed in parallel, each by a sampled LRU or LFU
+ * ({@code cache.eviction-policy}) over the access stats {@link CacheService} flushes.
+ * Any key may be evicted, with or without a TTL (Redis {@code allkeys-lru} / {@code allkeys-lfu}).
+ * Sizes come from the statistics collector, so the limit is approximate, as in Redis.
+ * <p>
+ * Published metrics:
+ * <ul>
+ *   <li>{@code cache.evicted} — rows deleted, tagged {@code reason=expired|capacity}</li>
+ *   <li>{@code cache.eviction.lag.seconds} — how long the oldest expired row has been waiting</li>
+ *   <li>{@code cache.eviction.batch.size} — current adaptive batch size</li>
+ *   <li>{@code cache.entries} — live rows across all partitions</li>
+ * </ul>
+ */
+@Service
+public class CacheEvictionService {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheEvictionService.class);
+    private static final int MIN_BATCH_SIZE = 100;
+    private static final int MAX_BATCH_SIZE = 20_000;
+    private static final long TARGET_BATCH_MS = 50;
+    private static final long MAX_RUN_MS = 1000;
+    private static final long RUN_INTERVAL_MS = 5000;
+
+    private static final int SAMPLES_PER_EVICTION = 5;       // like Redis maxmemory-samples
+    private static final int MAX_CAPACITY_EVICTIONS = 5000;  // per partition per run
+    private static final long LFU_HALF_LIFE_SECONDS = 600;   // idle time that halves a hit count
+    private static final int EVICTION_THREADS = 4;
+
+    /** Which rows go first when a partition is over capacity. */
+    public enum Policy { LRU, LFU }
+
+    private final CacheRepository repo;
+    private final CacheMetrics metrics;
+    private final long maxEntries;
+    private final Policy policy;
+    private final Counter expiredEvictions;
+    private final Counter capacityEvictions;
+    private final AtomicInteger batchSize = new AtomicInteger(1000);
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final AtomicLong entries = new AtomicLong();
+    private final ExecutorService workers;
+
+    public CacheEvictionService(CacheRepository repo, MeterRegistry meters, CacheMetrics metrics,
+                                @Value("${cache.max-entries:0}") long maxEntries,
+                                @Value("${cache.eviction-policy:LRU}") Policy policy) {
+        this.repo = repo;
+        this.metrics = metrics;
+        this.maxEntries = maxEntries;
+        this.policy = policy;
+        this.expiredEvictions = meters.counter("cache.evicted", "reason", "expired");
+        this.capacityEvictions = meters.counter("cache.evicted", "reason", "capacity");
+        meters.gauge("cache.eviction.lag.seconds", lagMillis, millis -> millis.get() / 1000.0);
+        meters.gauge("cache.eviction.batch.size", batchSize);
+        meters.gauge("cache.entries", entries);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(EVICTION_THREADS, r -> {
+            Thread t = new Thread(r, "cache-evict-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        workers.shutdownNow();
+    }
+
+    /** Delete expired rows batch by batch until caught up or out of time for this run. */
+    @Scheduled(fixedDelay = RUN_INTERVAL_MS)
+    public void evictExpired() {
+        long runStart = System.nanoTime();
+        int total = 0;
+        while (true) {
+            int size = batchSize.get();
+            long start = System.nanoTime();
+            int deleted = metrics.time("evict", () -> repo.evictExpired(size));
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            total += deleted;
+            expiredEvictions.increment(deleted);
+
+            if (elapsedMs > TARGET_BATCH_MS) {
+                batchSize.set(Math.max(MIN_BATCH_SIZE, size / 2));
+            } else if (elapsedMs < TARGET_BATCH_MS / 2 && deleted == size) {
+                batchSize.set(Math.min(MAX_BATCH_SIZE, size * 2));
+            }
+            if (deleted < size || (System.nanoTime() - runStart) / 1_000_000 >= MAX_RUN_MS) {
+                break;
+            }
+        }
+        lagMillis.set(repo.oldestExpiredAgeSeconds().map(age -> Math.round(age * 1000)).orElse(0L));
+        if (total > 0) {
+            log.debug("Cache: evicted {} expired entries (batch size now {}, lag {} ms)",
+                total, batchSize.get(), lagMillis.get());
+        }
+    }
+
+    /** Trim every partition that holds more than its share of {@code cache.max-entries}. */
+    @Scheduled(fixedDelay = RUN_INTERVAL_MS, initialDelay = RUN_INTERVAL_MS)
+    public void enforceCapacity() {
+        Map<String, Long> sizes = repo.partitionSizes();
+        entries.set(sizes.values().stream().mapToLong(Long::longValue).sum());
+        if (maxEntries <= 0 || sizes.isEmpty()) {
+            return;
+        }
+        long perPartition = Math.max(1, maxEntries / sizes.size());
+        List<Callable<Integer>> trims = new ArrayList<>();
+        sizes.forEach((partition, size) -> {
+            if (size > perPartition) {
+                int excess = (int) Math.min(MAX_CAPACITY_EVICTIONS, size - perPartition);
+                int sampleRows = excess * SAMPLES_PER_EVICTION;
+                trims.add(() -> metrics.time("evict-capacity", () -> repo.evictSampled(partition, excess, sampleRows,
+                    policy == Policy.LFU, LFU_HALF_LIFE_SECONDS)));
+            }
+        });
+        if (trims.isEmpty()) {
+            return;
+        }
+        int total = 0;
+        try {
+            for (Future<Integer> trim : workers.invokeAll(trims)) {
+                total += trim.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("Cache: capacity eviction failed: {}", e.getCause().getMessage());
+        }
+        capacityEvictions.increment(total);
+        if (total > 0) {
+            log.debug("Cache: evicted {} entries over capacity ({} max, {})", total, maxEntries, policy);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.tobenamed.justusepostgres.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Cache effectiveness metrics (like Redis {@code INFO stats} keyspace_hits / keyspace_misses).
+ *
+ * <ul>
+ *   <li>{@code cache.operation} — latency timer per operation ({@code op=get|set|delete|...})</li>
+ *   <li>{@code cache.requests} — lookups by {@code tier=near|postgres} and {@code result=hit|miss};
+ *       near hit ratio tells what the in-process tier saves, overall hit ratio sizes the table</li>
+ *   <li>{@code cache.prefix.hit.ratio} / {@code cache.prefix.requests} — per key prefix (the part
+ *       before the first {@code ':'}, e.g. {@code session}), for the busiest prefixes only</li>
+ * </ul>
+ *
+ * <h3>Bounded cardinality</h3>
+ * A metric per prefix would explode if keys were unprefixed IDs. Prefixes are counted in a
+ * Space-Saving sketch of {@value #TRACKED_PREFIXES} slots: a new prefix takes over the least
+ * requested slot, so the busiest prefixes are always present and the series count never grows.
+ * Prefix ratios cover the last {@value #PREFIX_WINDOW_MS} ms window.
+ * <p>
+ * Every lookup records its prefix, so the sketch is striped {@value #PREFIX_STRIPES} ways by
+ * thread: request threads rarely share a lock, and the stripes are merged once per window.
+ */
+@Component
+public class CacheMetrics {
+
+    private static final int TRACKED_PREFIXES = 32;
+    private static final long PREFIX_WINDOW_MS = 60000;
+    private static final int PREFIX_STRIPES = 16; // power of two
+    private static final String NO_PREFIX = "(none)";
+
+    /** Where a lookup was answered. */
+    public enum Tier { NEAR, POSTGRES }
+
+    private final MeterRegistry meters;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Counter nearHits;
+    private final Counter postgresHits;
+    private final Counter misses;
+    private final PrefixSketch[] prefixes = new PrefixSketch[PREFIX_STRIPES];
+    private final MultiGauge prefixHitRatio;
+    private final MultiGauge prefixRequests;
+
+    public CacheMetrics(MeterRegistry meters) {
+        this.meters = meters;
+        for (int i = 0; i < PREFIX_STRIPES; i++) {
+            prefixes[i] = new PrefixSketch(TRACKED_PREFIXES);
+        }
+        this.nearHits = meters.counter("cache.requests", "tier", "near", "result", "hit");
+        this.postgresHits = meters.counter("cache.requests", "tier", "postgres", "result", "hit");
+        this.misses = meters.counter("cache.requests", "tier", "postgres", "result", "miss");
+        this.prefixHitRatio = MultiGauge.builder("cache.prefix.hit.ratio")
+            .description("Hit ratio of the busiest key prefixes over the last window")
+            .register(meters);
+        this.prefixRequests = MultiGauge.builder("cache.prefix.requests")
+            .description("Estimated lookups of the busiest key prefixes over the last window")
+            .register(meters);
+    }
+
+    /** Run and time one cache operation. */
+    public <T> T time(String op, Supplier<T> operation) {
+        return timers.computeIfAbsent(op, o -> Timer.builder("cache.operation")
+                .tag("op", o)
+                .publishPercentileHistogram()
+                .register(meters))
+            .record(operation);
+    }
+
+    public void hit(String key, Tier tier) {
+        (tier == Tier.NEAR ? nearHits : postgresHits).increment();
+        prefixSketch().record(prefix(key), true);
+    }
+
+    public void miss(String key) {
+        misses.increment();
+        prefixSketch().record(prefix(key), false);
+    }
+
+    /** Publish the finished window's busiest prefixes and start a new window. */
+    @Scheduled(fixedRate = PREFIX_WINDOW_MS, initialDelay = PREFIX_WINDOW_MS)
+    public void publishPrefixStats() {
+        List<PrefixSketch.Slot> top = PrefixSketch.merge(prefixes, TRACKED_PREFIXES);
+        prefixHitRatio.register(top.stream()
+            .map(s -> MultiGauge.Row.of(Tags.of("prefix", s.prefix), (double) s.hits / Math.max(1, s.hits + s.misses)))
+            .toList(), true);
+        prefixRequests.register(top.stream()
+            .map(s -> MultiGauge.Row.of(Tags.of("prefix", s.prefix), s.count))
+            .toList(), true);
+    }
+
+    private PrefixSketch prefixSketch() {
+        return prefixes[(int) Thread.currentThread().getId() & (PREFIX_STRIPES - 1)];
+    }
+
+    static String prefix(String key) {
+        int colon = key.indexOf(':');
+        return colon > 0 ? key.substring(0, colon) : NO_PREFIX;
+    }
+
+    /**
+     * Space-Saving top-k (Metwally et al.): k slots; an untracked prefix evicts the slot with
+     * the lowest count and inherits that count, so {@code count} overestimates by at most the
+     * inherited amount. Hits and misses are counted exactly from the moment a prefix is tracked.
+     */
+    static final class PrefixSketch {
+
+        static final class Slot {
+            final String prefix;
+            long count;
+            long hits;
+            long misses;
+
+            Slot(String prefix, long count) {
+                this.prefix = prefix;
+                this.count = count;
+            }
+        }
+
+        private final int capacity;
+        private Map<String, Slot> slots = new HashMap<>();
+
+        PrefixSketch(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void record(String prefix, boolean hit) {
+            Slot slot = slots.get(prefix);
+            if (slot == null) {
+                long inherited = 0;
+                if (slots.size() >= capacity) {
+                    Slot min = slots.values().stream().min(Comparator.comparingLong(s -> s.count)).orElseThrow();
+                    slots.remove(min.prefix);
+                    inherited = min.count;
+                }
+                slot = new Slot(prefix, inherited);
+                slots.put(prefix, slot);
+            }
+            slot.count++;
+            if (hit) {
+                slot.hits++;
+            } else {
+                slot.misses++;
+            }
+        }
+
+        /** Return the current slots, busiest first, and reset the sketch. */
+        synchronized List<Slot> drain() {
+            List<Slot> top = new ArrayList<>(slots.values());
+            top.sort(Comparator.comparingLong((Slot s) -> s.count).reversed());
+            slots = new HashMap<>();
+            return top;
+        }
+
+        /**
+         * Drain all stripes and add up their counts per prefix (Space-Saving sketches merge by
+         * summing); returns the {@code k} busiest, busiest first.
+         */
+        static List<Slot> merge(PrefixSketch[] stripes, int k) {
+            Map<String, Slot> merged = new HashMap<>();
+            for (PrefixSketch stripe : stripes) {
+                for (Slot s : stripe.drain()) {
+                    Slot m = merged.computeIfAbsent(s.prefix, p -> new Slot(p, 0));
+                    m.count += s.count;
+                    m.hits += s.hits;
+                    m.misses += s.misses;
+                }
+            }
+            return merged.values().stream()
+                .sorted(Comparator.comparingLong((Slot s) -> s.count).reversed())
+                .limit(k)
+                .toList();
+        }
+    }
+}
@@ -1,44 +1,608 @@
 package org.tobenamed.justusepostgres.service;
 
+import org.tobenamed.justusepostgres.model.CacheBlob;
 import org.tobenamed.justusepostgres.model.CacheEntry;
+import org.tobenamed.justusepostgres.model.CacheWrite;
 import org.tobenamed.justusepostgres.repository.CacheRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+/**
+ * Service for key-value caching (replaces Redis).
+ *
+ * <h3>Two tiers</h3>
+ * Hot keys are served from a bounded in-process near cache (~microseconds) in front of the
+ * UNLOGGED {@code cache_entries} table (~1-5 ms per round trip), like Redis client-side caching.
+ * <ul>
+ *   <li>Near entries live at most 30 s and never past the row's {@code expires_at}</li>
+ *   <li>Every SET/DEL NOTIFYs the key; {@link NotificationListener} delivers it to every
+ *       instance, which drops the key — so all nodes see writes within milliseconds</li>
+ *   <li>Integer values (counters) are never near-cached: they change on every INCRBY, which
+ *       therefore skips the NOTIFY, and reads always see the shared value</li>
+ *   <li>If the LISTEN connection drops, notifications are lost, so the whole near cache is
+ *       cleared on reconnect</li>
+ *   <li>Binary values live in a second near cache bounded by total size
+ *       ({@value #NEAR_BYTES_MAX_BYTES} bytes), filled only by reads that ask for it</li>
+ * </ul>
+ * Hit/miss/eviction counts are published as {@code cache.gets} etc. with {@code cache=near};
+ * per-operation latency and tier/prefix hit ratios by {@link CacheMetrics}.
+ * Expired rows are never returned; {@link CacheEvictionService} deletes them in the background
+ * and enforces the capacity limit using the access stats flushed from here every second.
+ */
 @Service
 public class CacheService {
 
     private static final Logger log = LoggerFactory.getLogger(CacheService.class);
+    private static final int NEAR_CACHE_MAX_ENTRIES = 10_000;
+    private static final long NEAR_BYTES_MAX_BYTES = 64L * 1024 * 1024;
+    private static final Duration NEAR_CACHE_TTL = Duration.ofSeconds(30);
+    private static final int INVALIDATION_STRIPES = 64; // power of two
+    private static final int MAX_BATCH_KEYS = 1000;
+    private static final long LOAD_WAIT_MS = 5000;
+    private static final long LOAD_POLL_MS = 25;
+    private static final long LOAD_JOIN_TIMEOUT_MS = 30_000;
+    private static final double EARLY_REFRESH_BETA = 1.0;  // > 1 refreshes earlier, < 1 later
+    private static final long ACCESS_FLUSH_MS = 1000;
+    private static final int ACCESS_FLUSH_BATCH = 1000;
+    private static final int MAX_TRACKED_KEYS = 100_000;
+    private static final int COMPRESS_MIN_BYTES = 1024;
+    private static final CacheCodec DEFAULT_CODEC = CacheCodec.LZ4;
+    /** Binary codec per key prefix (the part before the first ':'). */
+    private static final Map<String, CacheCodec> CODEC_BY_PREFIX = Map.of(
+        "fragment", CacheCodec.ZSTD,  // rendered HTML: large and very compressible
+        "proto", CacheCodec.LZ4,      // protobufs: small, latency-sensitive
+        "img", CacheCodec.NONE        // already compressed
+    );
 
     private final CacheRepository repo;
+    private final Cache<String, CacheEntry> near;
+    /** Decoded binary values; weighed by size, since a few large values could crowd out everything else. */
+    private final Cache<String, CacheBlob> nearBytes;
+    /**
+     * Invalidation counters, striped by key hash: a read that raced with an invalidation of
+     * its stripe never re-caches the old value, while writes to other keys rarely interfere.
+     */
+    private final AtomicLongArray invalidations = new AtomicLongArray(INVALIDATION_STRIPES);
+    private final Map<String, CompletableFuture<CacheBlob>> loads = new ConcurrentHashMap<>();
+    /** Hits since the last flush, per key (like Redis's per-object LRU clock / LFU counter). */
+    private final Map<String, LongAdder> accesses = new ConcurrentHashMap<>();
+    /** Loads holding a lock connection; a quarter of the pool, so they can never drain it. */
+    private final Semaphore loadPermits;
+    private final CacheMetrics metrics;
 
-    public CacheService(CacheRepository repo) {
+    public CacheService(CacheRepository repo, NotificationListener listener,
+                        MeterRegistry meters, CacheMetrics metrics,
+                        @Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize) {
         this.repo = repo;
+        this.metrics = metrics;
+        this.loadPermits = new Semaphore(Math.max(1, poolSize / 4));
+        this.near = Caffeine.newBuilder()
+            .maximumSize(NEAR_CACHE_MAX_ENTRIES)
+            .expireAfter(new NearCacheExpiry<CacheEntry>(CacheEntry::expiresAt))
+            .recordStats()
+            .build();
+        this.nearBytes = Caffeine.newBuilder()
+            .maximumWeight(NEAR_BYTES_MAX_BYTES)
+            .<String, CacheBlob>weigher((key, blob) -> blob.data().length)
+            .expireAfter(new NearCacheExpiry<CacheBlob>(CacheBlob::expiresAt))
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meters, near, "near");
+        CaffeineCacheMetrics.monitor(meters, nearBytes, "near-bytes");
+        listener.subscribe(CacheRepository.INVALIDATION_CHANNEL, this::invalidate);
     }
 
     public Optional<CacheEntry> get(String key) {
-        return repo.get(key);
+        return metrics.time("get", () -> lookup(key));
     }
 
     public void set(String key, String jsonValue, Duration ttl) {
-        repo.set(key, jsonValue, ttl);
+        metrics.time("set", () -> {
+            repo.set(key, jsonValue, ttl);
+            return null;
+        });
+        invalidate(key);
     }
 
     public boolean delete(String key) {
-        return repo.delete(key);
+        boolean deleted = metrics.time("delete", () -> repo.delete(key));
+        invalidate(key);
+        return deleted;
     }
 
-    /** Periodic expired entry cleanup — like Redis's lazy + active expiration. */
-    @Scheduled(fixedRate = 60000) // every 60 seconds
-    public void cleanupExpired() {
-        int evicted = repo.evictExpired();
-        if (evicted > 0) {
-            log.info("Cache: evicted {} expired entries", evicted);
+    /**
+     * SET for opaque bytes. Values of at least {@value #COMPRESS_MIN_BYTES} bytes are
+     * compressed with the codec for their key prefix; if that does not make them smaller
+     * (already-compressed data), they are stored as is.
+     */
+    public void setBytes(String key, byte[] data, Duration ttl) {
+        CacheBlob encoded = encode(key, data);
+        metrics.time("set-bytes", () -> {
+            repo.setBytes(key, encoded.data(), encoded.codec(), ttl);
+            return null;
+        });
+        invalidate(key);
+    }
+
+    /** GET for a binary entry, decompressed; not near-cached (see {@link #getBytes(String, boolean)}). */
+    public Optional<CacheBlob> getBytes(String key) {
+        return getBytes(key, false);
+    }
+
+    /**
+     * GET for a binary entry, decompressed. With {@code nearCache}, the decoded value is
+     * kept in and served from the in-process tier, like JSON values.
+     */
+    public Optional<CacheBlob> getBytes(String key, boolean nearCache) {
+        return metrics.time("get-bytes", () -> lookupBytes(key, nearCache));
+    }
+
+    /**
+     * The stored form of {@code data}: compressed with the codec for the key's prefix (else
+     * {@link #DEFAULT_CODEC}), or as is when small or when compression does not shrink it.
+     */
+    private static CacheBlob encode(String key, byte[] data) {
+        CacheCodec codec = data.length < COMPRESS_MIN_BYTES
+            ? CacheCodec.NONE : CODEC_BY_PREFIX.getOrDefault(CacheMetrics.prefix(key), DEFAULT_CODEC);
+        byte[] encoded = codec.encode(data);
+        if (encoded.length >= data.length) {
+            codec = CacheCodec.NONE;
+            encoded = data;
+        }
+        return new CacheBlob(key, encoded, codec.id(), null, null, null);
+    }
+
+    private static CacheBlob decode(CacheBlob stored) {
+        return new CacheBlob(stored.key(), CacheCodec.fromId(stored.codec()).decode(stored.data()),
+            stored.codec(), stored.expiresAt(), stored.createdAt(), stored.loadMillis());
+    }
+
+    /**
+     * Return the cached binary value, or compute and store it — with one loader per key
+     * cluster-wide. Reads go through the near cache; values are compressed as by {@link #setBytes}.
+     *
+     * <ul>
+     *   <li>Concurrent misses in this JVM share one in-flight load (single-flight)</li>
+     *   <li>Across instances, the loader holds a session {@code pg_try_advisory_lock} on the key
+     *       for the duration of the load; other instances poll the row until it appears instead
+     *       of recomputing. If the lock holder takes longer than {@value #LOAD_WAIT_MS} ms, the
+     *       waiter loads it itself rather than failing</li>
+     *   <li>Probabilistic early refresh (XFetch): a hit is refreshed before {@code expires_at}
+     *       with a probability that rises as expiry approaches and with how long the value took
+     *       to compute, so a hot key is usually reloaded by one request while everyone else
+     *       is still served the current value</li>
+     * </ul>
+     * The lock pins one pooled connection (not a transaction) while the loader computes, so at
+     * most a quarter of the pool's worth of loads run at once in this JVM; the rest wait as if
+     * another instance held the lock. Callers sharing an in-flight load give up after
+     * {@value #LOAD_JOIN_TIMEOUT_MS} ms.
+     *
+     * @param loader computes the value; its exceptions propagate to every waiting caller
+     * @return the entry, decompressed
+     */
+    public CacheBlob getOrLoad(String key, Duration ttl, Supplier<byte[]> loader) {
+        Optional<CacheBlob> cached = getBytes(key, true);
+        if (cached.isPresent()) {
+            CacheBlob entry = cached.get();
+            return shouldRefreshEarly(entry) ? load(key, ttl, loader, entry) : entry;
+        }
+        return load(key, ttl, loader, null);
+    }
+
+    /** Drop a whole key space, e.g. one Spring cache region. */
+    public int deleteByPrefix(String prefix) {
+        int deleted = repo.deleteByPrefix(prefix);
+        for (int i = 0; i < INVALIDATION_STRIPES; i++) {
+            invalidations.incrementAndGet(i);
+        }
+        near.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        nearBytes.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        return deleted;
+    }
+
+    /**
+     * INCRBY — atomic in Postgres, so every instance sees one shared counter.
+     * No invalidation is needed: integer values are read through to Postgres, never near-cached.
+     *
+     * @param ttlIfCreated TTL for a key that did not exist yet (e.g. a rate-limit window), or null
+     * @throws IllegalArgumentException if the current value is not an integer or would overflow
+     */
+    public long incrBy(String key, long delta, Duration ttlIfCreated) {
+        try {
+            return metrics.time("incr", () -> repo.incrBy(key, delta, ttlIfCreated));
+        } catch (DataIntegrityViolationException e) {
+            throw new IllegalArgumentException("Value of '" + key + "' is not an integer or would overflow");
+        }
+    }
+
+    public boolean expire(String key, Duration ttl) {
+        if (ttl.getSeconds() < 1) {
+            throw new IllegalArgumentException("ttl must be at least 1 second");
+        }
+        boolean updated = metrics.time("expire", () -> repo.expire(key, ttl));
+        invalidate(key);
+        return updated;
+    }
+
+    public boolean persist(String key) {
+        boolean updated = metrics.time("persist", () -> repo.persist(key));
+        invalidate(key);
+        return updated;
+    }
+
+    /**
+     * MGET — near-cache hits are answered locally, all misses with one round trip.
+     *
+     * @return entry per key in request order; null for missing or expired keys
+     */
+    public Map<String, CacheEntry> mget(List<String> keys) {
+        validateBatch(keys);
+        return metrics.time("mget", () -> lookupAll(keys));
+    }
+
+    private Map<String, CacheEntry> lookupAll(List<String> keys) {
+        Map<String, CacheEntry> result = new LinkedHashMap<>();
+        List<String> misses = new ArrayList<>();
+        for (String key : keys) {
+            CacheEntry cached = near.getIfPresent(key);
+            result.put(key, cached);
+            if (cached == null) {
+                misses.add(key);
+            } else {
+                recordAccess(key);
+                metrics.hit(key, CacheMetrics.Tier.NEAR);
+            }
+        }
+        if (misses.isEmpty()) {
+            return result;
+        }
+        long[] seen = new long[misses.size()];
+        for (int i = 0; i < seen.length; i++) {
+            seen[i] = invalidations.get(stripe(misses.get(i)));
+        }
+        Map<String, CacheEntry> loaded = new HashMap<>();
+        repo.mget(misses).forEach(e -> loaded.put(e.key(), e));
+        for (int i = 0; i < seen.length; i++) {
+            String key = misses.get(i);
+            CacheEntry e = loaded.get(key);
+            if (e != null) {
+                result.put(key, e);
+                recordAccess(key);
+                metrics.hit(key, CacheMetrics.Tier.POSTGRES);
+                if (!isCounter(e)) {
+                    near.put(key, e);
+                    if (invalidations.get(stripe(key)) != seen[i]) {
+                        near.invalidate(key);
+                    }
+                }
+            } else {
+                metrics.miss(key);
+            }
+        }
+        return result;
+    }
+
+    /** MSET — if a key appears twice, the last write wins. */
+    public void mset(List<CacheWrite> writes) {
+        Map<String, CacheWrite> unique = new LinkedHashMap<>();
+        writes.forEach(w -> unique.put(w.key(), w));
+        validateBatch(unique.keySet());
+        metrics.time("mset", () -> {
+            repo.mset(List.copyOf(unique.values()));
+            return null;
+        });
+        unique.keySet().forEach(this::invalidate);
+    }
+
+    /** MDEL — returns how many of the keys existed. */
+    public int mdel(List<String> keys) {
+        validateBatch(keys);
+        List<String> distinct = keys.stream().distinct().toList();
+        int deleted = metrics.time("mdel", () -> repo.mdel(distinct).size());
+        distinct.forEach(this::invalidate);
+        return deleted;
+    }
+
+    /** GET through both tiers, counting where it was answered. */
+    private Optional<CacheEntry> lookup(String key) {
+        CacheEntry cached = near.getIfPresent(key);
+        if (cached != null) {
+            recordAccess(key);
+            metrics.hit(key, CacheMetrics.Tier.NEAR);
+            return Optional.of(cached);
+        }
+        int stripe = stripe(key);
+        long seen = invalidations.get(stripe);
+        Optional<CacheEntry> entry = repo.get(key);
+        if (entry.isPresent()) {
+            recordAccess(key);
+            metrics.hit(key, CacheMetrics.Tier.POSTGRES);
+            if (!isCounter(entry.get())) {
+                near.put(key, entry.get());
+                if (invalidations.get(stripe) != seen) {
+                    near.invalidate(key); // a write landed while we were reading
+                }
+            }
+        } else {
+            metrics.miss(key);
+        }
+        return entry;
+    }
+
+    /** Binary GET through the Postgres tier and, if {@code useNear}, the near tier. */
+    private Optional<CacheBlob> lookupBytes(String key, boolean useNear) {
+        if (useNear) {
+            CacheBlob cached = nearBytes.getIfPresent(key);
+            if (cached != null) {
+                recordAccess(key);
+                metrics.hit(key, CacheMetrics.Tier.NEAR);
+                return Optional.of(cached);
+            }
+        }
+        int stripe = stripe(key);
+        long seen = invalidations.get(stripe);
+        Optional<CacheBlob> stored = repo.getBytes(key);
+        if (stored.isEmpty()) {
+            metrics.miss(key);
+            return stored;
+        }
+        recordAccess(key);
+        metrics.hit(key, CacheMetrics.Tier.POSTGRES);
+        CacheBlob blob = decode(stored.get());
+        if (useNear) {
+            nearBytes.put(key, blob);
+            if (invalidations.get(stripe) != seen) {
+                nearBytes.invalidate(key); // a write landed while we were reading
+            }
+        }
+        return Optional.of(blob);
+    }
+
+    /**
+     * Write buffered access counts to {@code hits}/{@code last_accessed}, which drive capacity
+     * eviction. Near-cache hits count too — otherwise the hottest keys would look idle in
+     * Postgres and be evicted first.
+     */
+    @Scheduled(fixedDelay = ACCESS_FLUSH_MS)
+    public void flushAccessStats() {
+        if (accesses.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(accesses.keySet());
+        Collections.sort(keys);
+        List<String> batchKeys = new ArrayList<>(ACCESS_FLUSH_BATCH);
+        List<Long> batchCounts = new ArrayList<>(ACCESS_FLUSH_BATCH);
+        for (String key : keys) {
+            LongAdder count = accesses.remove(key);
+            if (count == null) {
+                continue;
+            }
+            batchKeys.add(key);
+            batchCounts.add(count.sum());
+            if (batchKeys.size() == ACCESS_FLUSH_BATCH) {
+                repo.recordAccesses(batchKeys, batchCounts);
+                batchKeys.clear();
+                batchCounts.clear();
+            }
+        }
+        if (!batchKeys.isEmpty()) {
+            repo.recordAccesses(batchKeys, batchCounts);
+        }
+    }
+
+    /** Count a hit in memory; beyond {@value #MAX_TRACKED_KEYS} distinct keys per flush, new keys are dropped. */
+    private void recordAccess(String key) {
+        LongAdder count = accesses.get(key);
+        if (count == null) {
+            if (accesses.size() >= MAX_TRACKED_KEYS) {
+                return;
+            }
+            count = accesses.computeIfAbsent(key, k -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /** Single-flight within this JVM; {@code current} is the value being refreshed early, if any. */
+    private CacheBlob load(String key, Duration ttl, Supplier<byte[]> loader, CacheBlob current) {
+        CompletableFuture<CacheBlob> mine = new CompletableFuture<>();
+        CompletableFuture<CacheBlob> inFlight = loads.putIfAbsent(key, mine);
+        if (inFlight != null) {
+            if (current != null) {
+                return current; // someone is already refreshing it
+            }
+            try {
+                // copy(): a timeout here must not fail the shared future for everyone else
+                return inFlight.copy().orTimeout(LOAD_JOIN_TIMEOUT_MS, TimeUnit.MILLISECONDS).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof TimeoutException) {
+                    throw new IllegalStateException("Timed out waiting for the in-flight load of '" + key + "'");
+                }
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+        try {
+            CacheBlob loaded = loadAcrossInstances(key, ttl, loader, current);
+            mine.complete(loaded);
+            return loaded;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, mine);
+        }
+    }
+
+    private CacheBlob loadAcrossInstances(String key, Duration ttl, Supplier<byte[]> loader, CacheBlob current) {
+        long deadline = System.currentTimeMillis() + LOAD_WAIT_MS;
+        while (true) {
+            Optional<CacheBlob> loaded = Optional.empty();
+            if (loadPermits.tryAcquire()) {
+                try {
+                    loaded = repo.withLoadLock(key, () -> {
+                        // Another instance may have stored it between our miss and taking the lock
+                        Optional<CacheBlob> stored = repo.getBytes(key);
+                        if (stored.isPresent() && (current == null || !stored.get().createdAt().equals(current.createdAt()))) {
+                            return decode(stored.get());
+                        }
+                        return compute(key, ttl, loader);
+                    });
+                } finally {
+                    loadPermits.release();
+                }
+            }
+            if (loaded.isPresent()) {
+                invalidate(key);
+                return loaded.get();
+            }
+            if (current != null) {
+                return current; // another instance is refreshing it
+            }
+            sleep(LOAD_POLL_MS);
+            Optional<CacheBlob> stored = repo.getBytes(key);
+            if (stored.isPresent()) {
+                return decode(stored.get());
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                log.warn("Cache: gave up waiting for another instance to load '{}', loading it here", key);
+                CacheBlob entry = compute(key, ttl, loader);
+                invalidate(key);
+                return entry;
+            }
+        }
+    }
+
+    private CacheBlob compute(String key, Duration ttl, Supplier<byte[]> loader) {
+        long start = System.nanoTime();
+        byte[] data = loader.get();
+        int loadMillis = (int) Math.min(Integer.MAX_VALUE, (System.nanoTime() - start) / 1_000_000);
+        CacheBlob encoded = encode(key, data);
+        CacheBlob stored = repo.setBytes(key, encoded.data(), encoded.codec(), ttl, loadMillis);
+        return new CacheBlob(key, data, stored.codec(), stored.expiresAt(), stored.createdAt(), loadMillis);
+    }
+
+    /**
+     * XFetch: refresh when {@code now - loadMillis * beta * ln(rand) >= expiresAt}.
+     * {@code -ln(rand)} is exponentially distributed, so most requests see a small gap and
+     * only a few, increasingly many near expiry, volunteer to recompute.
+     */
+    private static boolean shouldRefreshEarly(CacheBlob entry) {
+        if (entry.expiresAt() == null || entry.loadMillis() == null) {
+            return false;
+        }
+        double gapMillis = -entry.loadMillis() * EARLY_REFRESH_BETA * Math.log(ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gapMillis >= entry.expiresAt().toEpochMilli();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a cache load", e);
+        }
+    }
+
+    /** NOTIFY handler: a null key (listener reconnected) clears the whole near cache. */
+    private void invalidate(String key) {
+        if (key == null) {
+            for (int i = 0; i < INVALIDATION_STRIPES; i++) {
+                invalidations.incrementAndGet(i);
+            }
+            near.invalidateAll();
+            nearBytes.invalidateAll();
+        } else {
+            invalidations.incrementAndGet(stripe(key));
+            near.invalidate(key);
+            nearBytes.invalidate(key);
+        }
+    }
+
+    /** Integer values may be counters, which INCRBY changes without a NOTIFY. */
+    private static boolean isCounter(CacheEntry entry) {
+        String v = entry.value();
+        if (v == null || v.isEmpty() || v.length() > 20) {
+            return false;
+        }
+        int start = v.charAt(0) == '-' ? 1 : 0;
+        if (start == v.length()) {
+            return false;
+        }
+        for (int i = start; i < v.length(); i++) {
+            if (!Character.isDigit(v.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void validateBatch(Collection<String> keys) {
+        if (keys.isEmpty() || keys.size() > MAX_BATCH_KEYS) {
+            throw new IllegalArgumentException("Batch must contain between 1 and " + MAX_BATCH_KEYS + " keys");
+        }
+    }
+
+    private static int stripe(String key) {
+        return key.hashCode() & (INVALIDATION_STRIPES - 1);
+    }
+
+    /** Near entries expire after the near TTL or at the row's expires_at, whichever is first. */
+    private static final class NearCacheExpiry<V> implements Expiry<String, V> {
+
+        private final Function<V, Instant> expiresAt;
+
+        NearCacheExpiry(Function<V, Instant> expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+
+        @Override
+        public long expireAfterCreate(String key, V entry, long currentTime) {
+            long ttl = NEAR_CACHE_TTL.toNanos();
+            Instant until = expiresAt.apply(entry);
+            if (until != null) {
+                ttl = Math.min(ttl, Duration.between(Instant.now(), until).toNanos());
+            }
+            return Math.max(0, ttl);
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, V entry, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, entry, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, V entry, long currentTime, long currentDuration) {
+            return currentDuration;
         }
     }
 }
@@ -2,6 +2,7 @@ package org.tobenamed.justusepostgres.service;
 
 import org.tobenamed.justusepostgres.model.HybridSearchResult;
 import org.tobenamed.justusepostgres.repository.HybridSearchRepository;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -23,7 +24,9 @@ public class HybridSearchService {
     /**
      * Hybrid search combining keyword (BM25) and vector (cosine) search.
      * If no query vector is provided, generates a random demo vector.
+     * Results for a real query vector are cached for 5 minutes (see {@code CacheConfig}).
      */
+    @Cacheable(cacheNames = "hybrid-search", keyGenerator = "jsonKeyGenerator", sync = true, condition = "#queryVector != null && #queryVector.length > 0")
     public List<HybridSearchResult> hybridSearch(String query, float[] queryVector, int limit) {
         if (queryVector == null || queryVector.length == 0) {
             queryVector = generateDemoVector(384);
@@ -32,6 +35,7 @@ public class HybridSearchService {
     }
 
     /** Keyword-only search for comparison. */
+    @Cacheable(cacheNames = "keyword-search", keyGenerator = "jsonKeyGenerator", sync = true)
     public List<HybridSearchResult> keywordOnly(String query, int limit) {
         return repo.keywordOnly(query, limit);
     }
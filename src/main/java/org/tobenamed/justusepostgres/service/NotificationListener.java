@@ -0,0 +1,166 @@
+package org.tobenamed.justusepostgres.service;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * One dedicated LISTEN connection shared by the whole application (replaces Redis Pub/Sub).
+ *
+ * <h3>How LISTEN/NOTIFY works</h3>
+ * <ul>
+ *   <li>{@code pg_notify(channel, payload)} is delivered to every session that ran
+ *       {@code LISTEN channel} — but only when the sending transaction commits</li>
+ *   <li>Identical notifications inside one transaction are collapsed into one</li>
+ *   <li>Waiting for notifications issues no queries: the driver just reads the socket</li>
+ * </ul>
+ *
+ * The connection is opened outside the Hikari pool so it never competes with request
+ * traffic. Handlers run on a small dispatcher pool, not on the listener thread. After a
+ * (re)connect every handler is called with a {@code null} payload, because notifications
+ * sent while the connection was down are lost and subscribers must resync.
+ */
+@Component
+public class NotificationListener implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(NotificationListener.class);
+    private static final int POLL_TIMEOUT_MS = 500;
+    private static final long RECONNECT_DELAY_MS = 2000;
+    private static final int DISPATCH_THREADS = 4;
+
+    private final DataSourceProperties dataSource;
+    private final Map<String, List<Consumer<String>>> handlers = new ConcurrentHashMap<>();
+    private final ExecutorService dispatcher;
+
+    private volatile boolean running;
+    private volatile Connection connection;
+    private Thread thread;
+
+    public NotificationListener(DataSourceProperties dataSource) {
+        this.dataSource = dataSource;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.dispatcher = Executors.newFixedThreadPool(DISPATCH_THREADS, r -> {
+            Thread t = new Thread(r, "pg-notify-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Register a handler for a channel. The payload is {@code null} after a reconnect. */
+    public void subscribe(String channel, Consumer<String> handler) {
+        handlers.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(handler);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        thread = new Thread(this::listen, "pg-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        Connection conn = connection;
+        if (conn != null) {
+            try {
+                conn.close(); // unblocks getNotifications()
+            } catch (SQLException ignored) {
+                // shutting down anyway
+            }
+        }
+        dispatcher.shutdown();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection conn = DriverManager.getConnection(
+                    dataSource.determineUrl(), dataSource.determineUsername(), dataSource.determinePassword())) {
+                connection = conn;
+                PGConnection pg = conn.unwrap(PGConnection.class);
+                Set<String> listening = new HashSet<>();
+                log.info("LISTEN connection established");
+
+                listenToNewChannels(conn, listening);
+                handlers.keySet().forEach(channel -> dispatch(channel, null));
+
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(POLL_TIMEOUT_MS);
+                    if (notifications != null) {
+                        for (PGNotification n : notifications) {
+                            dispatch(n.getName(), n.getParameter());
+                        }
+                    }
+                    listenToNewChannels(conn, listening);
+                }
+            } catch (SQLException e) {
+                if (running) {
+                    log.warn("LISTEN connection lost: {} — reconnecting in {} ms", e.getMessage(), RECONNECT_DELAY_MS);
+                    sleepQuietly(RECONNECT_DELAY_MS);
+                }
+            } finally {
+                connection = null;
+            }
+        }
+    }
+
+    /** Channels subscribed after the connection was opened are picked up on the next poll. */
+    private void listenToNewChannels(Connection conn, Set<String> listening) throws SQLException {
+        for (String channel : handlers.keySet()) {
+            if (listening.add(channel)) {
+                try (Statement st = conn.createStatement()) {
+                    st.execute("LISTEN \"" + channel.replace("\"", "\"\"") + "\"");
+                }
+            }
+        }
+    }
+
+    private void dispatch(String channel, String payload) {
+        List<Consumer<String>> subscribers = handlers.get(channel);
+        if (subscribers == null) {
+            return;
+        }
+        for (Consumer<String> handler : subscribers) {
+            dispatcher.execute(() -> {
+                try {
+                    handler.accept(payload);
+                } catch (RuntimeException e) {
+                    log.warn("Notification handler for '{}' failed: {}", channel, e.getMessage(), e);
+                }
+            });
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.tobenamed.justusepostgres.service;
+
+import org.tobenamed.justusepostgres.repository.OutboxRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transactional outbox: enqueue messages atomically with domain writes.
+ *
+ * <pre>
+ * &#64;Transactional
+ * public Long createDocument(String collection, String json) {
+ *     Long id = documents.insert(collection, json);
+ *     outbox.enqueue("documents", "{\"event\":\"created\",\"id\":" + id + "}");
+ *     return id;
+ * }
+ * </pre>
+ *
+ * If the domain transaction rolls back, so does the message; if it commits, the relay
+ * enqueues the message within ~500 ms. Every instance schedules the relay, but an advisory
+ * lock lets only one of them move a batch at a time, so messages are enqueued in outbox
+ * order and FIFO groups keep their order. Published metrics:
+ * <ul>
+ *   <li>{@code outbox.relayed} — messages moved to the queue, tagged by queue (throughput)</li>
+ *   <li>{@code outbox.lag.seconds} — age of the oldest message still waiting in the outbox</li>
+ * </ul>
+ */
+@Service
+public class OutboxService {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboxService.class);
+    private static final int RELAY_BATCH_SIZE = 1000;
+    private static final int MAX_BATCHES_PER_RUN = 50;
+
+    private final OutboxRepository repo;
+    private final MeterRegistry meters;
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final TransactionTemplate relayTx;
+
+    public OutboxService(OutboxRepository repo, MeterRegistry meters, PlatformTransactionManager txManager) {
+        this.repo = repo;
+        this.meters = meters;
+        this.relayTx = new TransactionTemplate(txManager);
+        meters.gauge("outbox.lag.seconds", lagMillis, millis -> millis.get() / 1000.0);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Long enqueue(String queue, String payload) {
+        return enqueue(queue, payload, 0, null);
+    }
+
+    /**
+     * Record a message in the caller's transaction. Fails fast when called outside one,
+     * since an auto-committed outbox row would bring back the dual-write race.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Long enqueue(String queue, String payload, int priority, String groupKey) {
+        QueueService.validatePriority(priority);
+        return repo.insert(queue, payload, priority, groupKey);
+    }
+
+    /**
+     * Drain committed outbox rows into message_queue, a batch per transaction. Stops early
+     * when another instance's relay holds the lock; it is draining the same rows.
+     */
+    @Scheduled(fixedDelay = 500) // every half second
+    public void relay() {
+        int total = 0;
+        for (int i = 0; i < MAX_BATCHES_PER_RUN; i++) {
+            Map<String, Integer> relayed = relayTx.execute(status ->
+                repo.tryLockRelay() ? repo.relay(RELAY_BATCH_SIZE) : null);
+            if (relayed == null) {
+                break;
+            }
+            int moved = 0;
+            for (Map.Entry<String, Integer> e : relayed.entrySet()) {
+                meters.counter("outbox.relayed", "queue", e.getKey()).increment(e.getValue());
+                moved += e.getValue();
+            }
+            total += moved;
+            if (moved < RELAY_BATCH_SIZE) {
+                break;
+            }
+        }
+        lagMillis.set(repo.oldestAgeSeconds().map(age -> Math.round(age * 1000)).orElse(0L));
+        if (total > 0) {
+            log.debug("Outbox: relayed {} messages", total);
+        }
+    }
+}
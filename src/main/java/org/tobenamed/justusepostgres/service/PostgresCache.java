@@ -0,0 +1,125 @@
+package org.tobenamed.justusepostgres.service;
+
+import org.tobenamed.justusepostgres.model.CacheBlob;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+import org.springframework.cache.support.NullValue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+/**
+ * One Spring cache region stored in {@code cache_entries} (like a Spring Data Redis cache).
+ *
+ * <ul>
+ *   <li>Rows are keyed {@code <region>::<key>}; keys longer than the 255-character column
+ *       are replaced by their SHA-256, so long argument lists still fit</li>
+ *   <li>Values are Smile-encoded with embedded type ids, so {@code List<HybridSearchResult>}
+ *       comes back as records, not maps; cached nulls are stored as a Smile {@code null}.
+ *       They go to {@code value_bytes} through {@link CacheService#setBytes}, compressed by
+ *       {@link CacheCodec} like any binary value, so Postgres never parses them</li>
+ *   <li>With the near cache on, reads go through {@link CacheService}'s in-process tier and
+ *       its NOTIFY invalidation; without it, every read is a Postgres round trip
+ *       ({@code sync = true} loads always use the near cache)</li>
+ * </ul>
+ */
+public class PostgresCache extends AbstractValueAdaptingCache {
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final String name;
+    private final Duration ttl;
+    private final boolean nearCache;
+    private final CacheService service;
+    private final ObjectMapper mapper;
+
+    PostgresCache(String name, Duration ttl, boolean nearCache, CacheService service, ObjectMapper mapper) {
+        super(true);
+        this.name = name;
+        this.ttl = ttl;
+        this.nearCache = nearCache;
+        this.service = service;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return service;
+    }
+
+    @Override
+    protected Object lookup(Object key) {
+        Optional<CacheBlob> entry = service.getBytes(storeKey(key), nearCache);
+        return entry.map(e -> deserialize(e.data())).orElse(null);
+    }
+
+    /** {@code @Cacheable(sync = true)}: one load per key across all instances, with early refresh. */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        CacheBlob entry = service.getOrLoad(storeKey(key), ttl, () -> {
+            try {
+                return serialize(toStoreValue(valueLoader.call()));
+            } catch (Exception e) {
+                throw new ValueRetrievalException(key, valueLoader, e);
+            }
+        });
+        return (T) fromStoreValue(deserialize(entry.data()));
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        service.setBytes(storeKey(key), serialize(toStoreValue(value)), ttl);
+    }
+
+    @Override
+    public void evict(Object key) {
+        service.delete(storeKey(key));
+    }
+
+    @Override
+    public void clear() {
+        service.deleteByPrefix(name + "::");
+    }
+
+    private String storeKey(Object key) {
+        String storeKey = name + "::" + key;
+        if (storeKey.length() <= MAX_KEY_LENGTH) {
+            return storeKey;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.toString().getBytes(StandardCharsets.UTF_8));
+            return name + "::sha256:" + HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM ships SHA-256
+        }
+    }
+
+    private byte[] serialize(Object storeValue) {
+        try {
+            return mapper.writeValueAsBytes(storeValue == NullValue.INSTANCE ? null : storeValue);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cache '" + name + "': value is not serializable: " + e.getMessage(), e);
+        }
+    }
+
+    private Object deserialize(byte[] smile) {
+        try {
+            Object value = mapper.readValue(smile, Object.class);
+            return value != null ? value : NullValue.INSTANCE;
+        } catch (IOException e) {
+            return null; // written by an incompatible version of the class: treat as a miss
+        }
+    }
+}
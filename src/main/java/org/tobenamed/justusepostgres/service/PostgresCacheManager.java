@@ -0,0 +1,59 @@
+package org.tobenamed.justusepostgres.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.AbstractCacheManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Spring {@link org.springframework.cache.CacheManager} over {@code cache_entries}
+ * (replaces Spring Data Redis's {@code RedisCacheManager}).
+ *
+ * <pre>
+ * &#64;Cacheable("hybrid-search")
+ * public List&lt;HybridSearchResult&gt; keywordOnly(String query, int limit) { ... }
+ * </pre>
+ *
+ * Regions are declared up front with their own TTL and near-cache flag; any other
+ * cache name is created on first use with the defaults.
+ */
+public class PostgresCacheManager extends AbstractCacheManager {
+
+    /** TTL and whether reads go through the in-process near cache. */
+    public record Region(Duration ttl, boolean nearCache) {}
+
+    private final Map<String, Region> regions;
+    private final Region defaults;
+    private final CacheService service;
+    private final ObjectMapper mapper;
+
+    public PostgresCacheManager(Map<String, Region> regions, Region defaults,
+                                CacheService service, ObjectMapper mapper) {
+        this.regions = Map.copyOf(regions);
+        this.defaults = defaults;
+        this.service = service;
+        this.mapper = mapper;
+    }
+
+    @Override
+    protected Collection<? extends Cache> loadCaches() {
+        return regions.entrySet().stream()
+            .map(e -> create(e.getKey(), e.getValue()))
+            .toList();
+    }
+
+    @Override
+    protected Cache getMissingCache(String name) {
+        return create(name, defaults);
+    }
+
+    private Cache create(String name, Region region) {
+        if (name.contains("::")) {
+            throw new IllegalArgumentException("Cache name must not contain '::': " + name);
+        }
+        return new PostgresCache(name, region.ttl(), region.nearCache(), service, mapper);
+    }
+}
@@ -0,0 +1,62 @@
+package org.tobenamed.justusepostgres.service;
+
+import org.tobenamed.justusepostgres.repository.QueueRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Keeps {@code message_queue} small by archiving completed messages (like Kafka log retention).
+ *
+ * <ul>
+ *   <li>Completed rows are moved to the day-partitioned {@code message_queue_archive}
+ *       in bounded batches, so the hot table only holds in-flight work</li>
+ *   <li>Old archive partitions are dropped whole — instant, no DELETE, no vacuum debt</li>
+ *   <li>Failed messages stay in the hot table so operators can inspect and replay them</li>
+ * </ul>
+ */
+@Service
+public class QueueArchiveService {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueArchiveService.class);
+    private static final int ARCHIVE_AFTER_SECONDS = 300;   // keep recent completions visible for 5 minutes
+    private static final int ARCHIVE_BATCH_SIZE = 5000;
+    private static final int MAX_BATCHES_PER_RUN = 20;
+    private static final int PARTITIONS_AHEAD_DAYS = 3;
+    private static final int RETENTION_DAYS = 7;
+
+    private final QueueRepository repo;
+
+    public QueueArchiveService(QueueRepository repo) {
+        this.repo = repo;
+    }
+
+    /** Move completed messages to the archive, a batch at a time, until caught up. */
+    @Scheduled(fixedDelay = 10000, initialDelay = 10000) // every 10 seconds
+    public void archiveCompletedMessages() {
+        int total = 0;
+        for (int i = 0; i < MAX_BATCHES_PER_RUN; i++) {
+            int moved = repo.archiveCompleted(ARCHIVE_AFTER_SECONDS, ARCHIVE_BATCH_SIZE);
+            total += moved;
+            if (moved < ARCHIVE_BATCH_SIZE) {
+                break;
+            }
+        }
+        if (total > 0) {
+            log.info("Queue: archived {} completed messages", total);
+        }
+    }
+
+    /** Create upcoming daily partitions and drop the ones past retention. */
+    @Scheduled(fixedRate = 3600000) // every hour, and once at startup
+    public void maintainArchivePartitions() {
+        repo.createArchivePartitions(PARTITIONS_AHEAD_DAYS);
+        List<String> dropped = repo.dropArchivePartitionsOlderThan(RETENTION_DAYS);
+        if (!dropped.isEmpty()) {
+            log.info("Queue: dropped expired archive partitions {}", dropped);
+        }
+    }
+}
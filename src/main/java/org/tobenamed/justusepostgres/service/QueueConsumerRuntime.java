@@ -0,0 +1,263 @@
+package org.tobenamed.justusepostgres.service;
+
+import org.tobenamed.justusepostgres.model.QueueAck;
+import org.tobenamed.justusepostgres.model.QueueMessage;
+import org.tobenamed.justusepostgres.repository.QueueRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * In-process consumers (like a Kafka consumer group or a RabbitMQ listener container).
+ *
+ * <pre>
+ * runtime.register("emails", message -&gt; mailer.send(message.payload()), 8, 10);
+ * </pre>
+ *
+ * <h3>One transaction per batch</h3>
+ * Each worker claims up to {@code prefetch} messages, runs the handler and acks them with
+ * one batch UPDATE, all in ONE transaction — no HTTP hops, and the handler's own writes
+ * commit atomically with the ack. Each message runs inside a savepoint: a throwing handler rolls back only its
+ * own writes and the message is failed (retried with backoff / dead-lettered).
+ * Until the batch commits its rows stay locked, so no other consumer can see them.
+ *
+ * <h3>Backpressure</h3>
+ * A worker only claims its next batch after the previous one committed, so at most
+ * {@code concurrency × prefetch} messages are in flight and slow handlers slow down claiming.
+ * Idle workers issue no queries: they sleep until a NOTIFY for their queue arrives.
+ *
+ * <h3>Connection budget</h3>
+ * A busy worker holds a pool connection for its whole batch, handler included. Workers of
+ * all subscriptions together may therefore use at most half of the Hikari pool;
+ * {@link #register} rejects a subscription that would exceed that, so HTTP requests and
+ * scheduled jobs always find a free connection.
+ */
+@Service
+public class QueueConsumerRuntime implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueConsumerRuntime.class);
+    private static final int MAX_PREFETCH = 100;
+    private static final long IDLE_POLL_MS = 5000;      // safety net for missed notifications
+    private static final long ERROR_BACKOFF_MS = 1000;
+    private static final long SHUTDOWN_TIMEOUT_MS = 10000;
+
+    private final QueueService queues;
+    private final MeterRegistry meters;
+    private final TransactionTemplate batchTx;
+    private final TransactionTemplate messageTx;
+    private final Map<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+    private final int maxWorkers;
+    private int workerCount; // guarded by this
+
+    private volatile boolean running;
+
+    public QueueConsumerRuntime(QueueService queues, NotificationListener listener,
+                                PlatformTransactionManager txManager, MeterRegistry meters,
+                                @Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize) {
+        this.queues = queues;
+        this.meters = meters;
+        this.maxWorkers = Math.max(1, poolSize / 2);
+        this.batchTx = new TransactionTemplate(txManager);
+        this.messageTx = new TransactionTemplate(txManager);
+        this.messageTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+        listener.subscribe(QueueRepository.NOTIFY_CHANNEL, this::wake);
+    }
+
+    /**
+     * Start {@code concurrency} workers for a queue, each claiming up to {@code prefetch}
+     * messages per transaction. A handler that throws fails the message.
+     *
+     * @throws IllegalArgumentException if the workers of all subscriptions would exceed the
+     *         connection budget (half the pool)
+     */
+    public Subscription register(String queue, Consumer<QueueMessage> handler, int concurrency, int prefetch) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        if (prefetch < 1 || prefetch > MAX_PREFETCH) {
+            throw new IllegalArgumentException("prefetch must be between 1 and " + MAX_PREFETCH);
+        }
+        synchronized (this) {
+            if (concurrency > maxWorkers - workerCount) {
+                throw new IllegalArgumentException("concurrency " + concurrency + " exceeds the "
+                    + (maxWorkers - workerCount) + " of " + maxWorkers + " consumer workers left"
+                    + " (half the connection pool; each worker holds a connection for its whole batch)");
+            }
+            workerCount += concurrency;
+        }
+        Subscription subscription = new Subscription(queue, handler, concurrency, prefetch);
+        subscriptions.computeIfAbsent(queue, q -> ConcurrentHashMap.newKeySet()).add(subscription);
+        if (running) {
+            subscription.start();
+        }
+        log.info("Queue '{}': consumer registered (concurrency={}, prefetch={})", queue, concurrency, prefetch);
+        return subscription;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        subscriptions.values().forEach(set -> set.forEach(Subscription::start));
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        subscriptions.values().forEach(set -> set.forEach(Subscription::cancel));
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** NOTIFY handler: a null payload (listener reconnected) wakes every queue. */
+    private void wake(String queue) {
+        if (queue == null) {
+            subscriptions.values().forEach(set -> set.forEach(Subscription::wake));
+            return;
+        }
+        Set<Subscription> set = subscriptions.get(queue);
+        if (set != null) {
+            set.forEach(Subscription::wake);
+        }
+    }
+
+    /** Claim, handle and complete one batch in a single transaction; returns the batch size. */
+    private int processBatch(Subscription sub) {
+        Integer claimed = batchTx.execute(status -> {
+            List<QueueMessage> messages = queues.receiveBatch(sub.queue, sub.prefetch);
+            List<QueueAck> completed = new ArrayList<>(messages.size());
+            List<QueueAck> failed = new ArrayList<>();
+            for (QueueMessage message : messages) {
+                try {
+                    messageTx.executeWithoutResult(savepoint -> sub.handler.accept(message));
+                    completed.add(new QueueAck(message.id(), message.receipt()));
+                } catch (RuntimeException e) {
+                    log.warn("Queue '{}': handler failed for message {}: {}", sub.queue, message.id(), e.getMessage());
+                    failed.add(new QueueAck(message.id(), message.receipt()));
+                }
+            }
+            // One UPDATE per outcome instead of one per message
+            if (!completed.isEmpty()) {
+                queues.completeBatch(completed);
+                meters.counter("queue.consumer.processed", "queue", sub.queue).increment(completed.size());
+            }
+            if (!failed.isEmpty()) {
+                queues.failBatch(failed);
+                meters.counter("queue.consumer.failed", "queue", sub.queue).increment(failed.size());
+            }
+            return messages.size();
+        });
+        return claimed == null ? 0 : claimed;
+    }
+
+    /** A running consumer; {@link #cancel()} stops it after the current batch commits. */
+    public final class Subscription {
+
+        private final String queue;
+        private final Consumer<QueueMessage> handler;
+        private final int concurrency;
+        private final int prefetch;
+        private final Semaphore wakeups = new Semaphore(0);
+        private final List<Thread> workers = new ArrayList<>();
+        private volatile boolean active = true;
+
+        Subscription(String queue, Consumer<QueueMessage> handler, int concurrency, int prefetch) {
+            this.queue = queue;
+            this.handler = handler;
+            this.concurrency = concurrency;
+            this.prefetch = prefetch;
+        }
+
+        public String queue() {
+            return queue;
+        }
+
+        private synchronized void start() {
+            if (!active || !workers.isEmpty()) {
+                return;
+            }
+            for (int i = 1; i <= concurrency; i++) {
+                Thread t = new Thread(this::work, "queue-" + queue + "-" + i);
+                t.setDaemon(true);
+                workers.add(t);
+                t.start();
+            }
+        }
+
+        /** Stop claiming and wait for in-flight batches to commit. */
+        public void cancel() {
+            synchronized (QueueConsumerRuntime.this) {
+                if (active) {
+                    active = false;
+                    workerCount -= concurrency;
+                }
+            }
+            Set<Subscription> set = subscriptions.get(queue);
+            if (set != null) {
+                set.remove(this);
+            }
+            wakeups.release(concurrency);
+            List<Thread> threads;
+            synchronized (this) {
+                threads = List.copyOf(workers);
+            }
+            long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MS;
+            for (Thread t : threads) {
+                try {
+                    t.join(Math.max(1, deadline - System.currentTimeMillis()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            log.info("Queue '{}': consumer stopped", queue);
+        }
+
+        private void wake() {
+            if (wakeups.availablePermits() < concurrency) {
+                wakeups.release();
+            }
+        }
+
+        private void work() {
+            while (active) {
+                try {
+                    if (processBatch(this) == 0) {
+                        // A NOTIFY between the empty claim and this wait leaves a permit behind,
+                        // so the wake-up is never lost.
+                        wakeups.tryAcquire(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (RuntimeException e) {
+                    // The batch rolled back: claimed messages are pending again, attempts untouched.
+                    log.warn("Queue '{}': consumer batch failed: {}", queue, e.getMessage());
+                    try {
+                        Thread.sleep(ERROR_BACKOFF_MS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,62 +1,532 @@
 package org.tobenamed.justusepostgres.service;
 
+import org.tobenamed.justusepostgres.model.QueueAck;
 import org.tobenamed.justusepostgres.model.QueueMessage;
+import org.tobenamed.justusepostgres.model.QueuePage;
+import org.tobenamed.justusepostgres.model.QueueSettings;
+import org.tobenamed.justusepostgres.model.QueueStats;
 import org.tobenamed.justusepostgres.repository.QueueRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Service for Postgres-backed message queues (replaces Kafka/RabbitMQ/SQS).
+ *
+ * <h3>Long polling</h3>
+ * {@link #receiveWait} parks a request until a message arrives (like SQS WaitTimeSeconds).
+ * Parked requests hold no connection and issue no queries; {@code send} NOTIFYs the
+ * queue name and {@link NotificationListener} wakes the oldest waiter for that queue on a
+ * small executor, never on the notification thread. A waiter that fills its whole batch
+ * passes the wake on to the next one, so a burst drains without a thundering herd. If the
+ * wait expires while a claim is in flight, the claimed messages are released at once.
+ *
+ * <h3>Batched acks</h3>
+ * {@link #completeBatch} / {@link #failBatch} ack many messages with one {@code = ANY(?)}
+ * UPDATE. {@link #completeAsync} group-commits single acks: an ack that finds no flush
+ * running is written at once by the calling thread, and acks arriving meanwhile are written
+ * together by the next flush. An idle ack waits for nothing (no timer, so it works with
+ * scheduling disabled), while under load many acks share one statement.
+ * The REST single-message complete endpoint acks through it.
+ *
+ * <h3>Stats</h3>
+ * {@link #stats} reads an in-memory snapshot refreshed every 2 s from {@code queue_depth},
+ * counters that triggers keep up to date on every write by appending deltas (never updating
+ * a shared row, so long claim transactions block nobody); each refresh first folds those
+ * deltas into the totals. Neither the refresh nor the dashboards polling every second
+ * scan {@code message_queue}. Each response carries
+ * {@code asOf} and its age so callers know how stale the counts are.
  */
 @Service
 public class QueueService {
 
     private static final Logger log = LoggerFactory.getLogger(QueueService.class);
     private static final int VISIBILITY_TIMEOUT_SECONDS = 30;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final int BACKOFF_BASE_SECONDS = 5;
+    private static final int BACKOFF_MAX_SECONDS = 900;
+    private static final int PROMOTE_BATCH_SIZE = 10_000;
+    private static final int MAX_PRIORITY = 9; // like RabbitMQ's recommended 0-9 range
+    private static final int MAX_RECEIVE_BATCH = 1000;
+    private static final int MAX_WAIT_SECONDS = 20; // same cap as SQS
+    private static final int MAX_SEND_BATCH = 10_000;
+    private static final int MAX_LEASE_SECONDS = 43_200; // 12 hours, same cap as SQS
+    private static final int MAX_ACK_BATCH = 10_000;
+    private static final long STATS_REFRESH_MS = 2000;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int LONG_POLL_THREADS = 4;
 
     private final QueueRepository repo;
+    private final MeterRegistry meters;
+    /** Parked polls per queue, oldest first; only mutated inside compute so empty sets are dropped. */
+    private final Map<String, Set<LongPoll>> waiters = new ConcurrentHashMap<>();
+    private final ExecutorService wakeups;
+    private final Queue<PendingAck> pendingAcks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushingAcks = new AtomicBoolean();
+    private volatile DepthSnapshot depth;
 
-    public QueueService(QueueRepository repo) {
+    public QueueService(QueueRepository repo, NotificationListener listener, MeterRegistry meters) {
         this.repo = repo;
+        this.meters = meters;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.wakeups = Executors.newFixedThreadPool(LONG_POLL_THREADS, r -> {
+            Thread t = new Thread(r, "queue-longpoll-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        listener.subscribe(QueueRepository.NOTIFY_CHANNEL, this::wakeWaiters);
+    }
+
+    @PreDestroy
+    void stop() {
+        wakeups.shutdownNow();
     }
 
     public Long send(String queue, String payload) {
-        return repo.send(queue, payload);
+        return send(queue, payload, 0, null, null);
+    }
+
+    /**
+     * Enqueue with a priority (0-9, higher first), an optional delivery time and an optional
+     * FIFO group: messages sharing a {@code groupKey} are handed out one at a time, in send order.
+     */
+    public Long send(String queue, String payload, int priority, Instant deliverAt, String groupKey) {
+        validatePriority(priority);
+        return repo.send(queue, payload, priority, deliverAt, groupKey);
+    }
+
+    /** Enqueue a batch of messages in one round trip; ids are returned in payload order. */
+    public List<Long> sendBatch(String queue, List<String> payloads, int priority, Instant deliverAt, String groupKey) {
+        if (payloads.isEmpty() || payloads.size() > MAX_SEND_BATCH) {
+            throw new IllegalArgumentException("Batch must contain between 1 and " + MAX_SEND_BATCH + " messages");
+        }
+        validatePriority(priority);
+        return repo.sendBatch(queue, payloads, priority, deliverAt, groupKey);
     }
 
     public Optional<QueueMessage> receive(String queue) {
-        return repo.receive(queue);
+        return repo.receive(queue, VISIBILITY_TIMEOUT_SECONDS);
+    }
+
+    /** Claim up to {@code max} messages in one round trip, oldest first. */
+    public List<QueueMessage> receiveBatch(String queue, int max) {
+        if (max < 1 || max > MAX_RECEIVE_BATCH) {
+            throw new IllegalArgumentException("max must be between 1 and " + MAX_RECEIVE_BATCH);
+        }
+        return repo.receiveBatch(queue, max, VISIBILITY_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Long-poll receive: claims up to {@code max} messages, waiting up to {@code waitSeconds}
+     * for some to arrive. Completes with an empty list when the wait expires.
+     */
+    public CompletableFuture<List<QueueMessage>> receiveWait(String queue, int max, int waitSeconds) {
+        if (max < 1 || max > MAX_RECEIVE_BATCH) {
+            throw new IllegalArgumentException("max must be between 1 and " + MAX_RECEIVE_BATCH);
+        }
+        if (waitSeconds < 0 || waitSeconds > MAX_WAIT_SECONDS) {
+            throw new IllegalArgumentException("waitSeconds must be between 0 and " + MAX_WAIT_SECONDS);
+        }
+        CompletableFuture<List<QueueMessage>> result = new CompletableFuture<>();
+        if (waitSeconds == 0) {
+            result.complete(repo.receiveBatch(queue, max, VISIBILITY_TIMEOUT_SECONDS));
+            return result;
+        }
+        LongPoll poll = new LongPoll(queue, max, result);
+        result.completeOnTimeout(List.of(), waitSeconds, TimeUnit.SECONDS);
+        result.whenComplete((messages, error) -> unpark(poll));
+        poll.run();
+        return result;
+    }
+
+    /** Heartbeat for long-running jobs; empty if the lease already lapsed or was re-claimed. */
+    public Optional<Instant> extendLease(Long messageId, UUID receipt, int seconds) {
+        if (seconds < 1 || seconds > MAX_LEASE_SECONDS) {
+            throw new IllegalArgumentException("seconds must be between 1 and " + MAX_LEASE_SECONDS);
+        }
+        return repo.extendLease(messageId, requireReceipt(receipt), seconds);
+    }
+
+    /** Complete a claimed message; false if it is no longer held under {@code receipt}. */
+    public boolean complete(Long messageId, UUID receipt) {
+        return repo.complete(messageId, requireReceipt(receipt));
+    }
+
+    /**
+     * Complete many messages in one statement.
+     *
+     * @return per id, in request order: true if it was in flight under its receipt and is now completed
+     */
+    public Map<Long, Boolean> completeBatch(List<QueueAck> acks) {
+        validateAckBatch(acks);
+        Set<Long> completed = new HashSet<>(repo.completeBatch(acks));
+        Map<Long, Boolean> outcome = new LinkedHashMap<>();
+        acks.forEach(a -> outcome.put(a.messageId(), completed.contains(a.messageId())));
+        return outcome;
+    }
+
+    /**
+     * Complete a message as part of the next group commit; if no flush is running, this thread
+     * runs it. The future completes with the same per-id outcome as {@link #completeBatch}.
+     */
+    public CompletableFuture<Boolean> completeAsync(Long messageId, UUID receipt) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        pendingAcks.add(new PendingAck(new QueueAck(messageId, requireReceipt(receipt)), result));
+        flushPendingAcks();
+        return result;
+    }
+
+    /**
+     * Hand claims back without counting an attempt, e.g. for messages a consumer never got.
+     * Claims no longer held under these receipts are skipped; returns how many were released.
+     */
+    public int release(List<QueueAck> acks) {
+        return acks.isEmpty() ? 0 : repo.release(acks);
+    }
+
+    /** Lease deadlines of the given claims that are still held; lapsed or finished ones are absent. */
+    public Map<Long, Instant> activeLeases(List<QueueAck> acks) {
+        return acks.isEmpty() ? Map.of() : repo.activeLeases(acks);
+    }
+
+    /**
+     * Record a failed attempt: the message is retried with backoff, or dead-lettered once
+     * the queue's max attempts is reached.
+     *
+     * @return the message's new queue/status/visible_at, or empty if it was not in flight under {@code receipt}
+     */
+    public Optional<Map<String, Object>> fail(Long messageId, UUID receipt) {
+        Optional<Map<String, Object>> outcome = repo.fail(messageId, requireReceipt(receipt), defaultSettings(null));
+        outcome.ifPresent(this::countDeadLettered);
+        return outcome;
+    }
+
+    /**
+     * Record a failed attempt for many messages in one statement.
+     *
+     * @return per id, in request order: the new queue/status/visible_at, or empty if it was not in flight
+     */
+    public Map<Long, Optional<Map<String, Object>>> failBatch(List<QueueAck> acks) {
+        validateAckBatch(acks);
+        Map<Long, Map<String, Object>> failed = new LinkedHashMap<>();
+        for (Map<String, Object> row : repo.failBatch(acks, defaultSettings(null))) {
+            countDeadLettered(row);
+            failed.put(((Number) row.get("id")).longValue(), row);
+        }
+        Map<Long, Optional<Map<String, Object>>> outcome = new LinkedHashMap<>();
+        acks.forEach(a -> outcome.put(a.messageId(), Optional.ofNullable(failed.get(a.messageId()))));
+        return outcome;
+    }
+
+    /** Settings for a queue, falling back to the defaults when none were stored. */
+    public QueueSettings getSettings(String queue) {
+        return repo.getSettings(queue).orElse(defaultSettings(queue));
+    }
+
+    public QueueSettings saveSettings(QueueSettings settings) {
+        if (settings.visibilityTimeoutSeconds() < 1 || settings.maxAttempts() < 1
+                || settings.backoffBaseSeconds() < 1 || settings.backoffMaxSeconds() < 1) {
+            throw new IllegalArgumentException(
+                "visibilityTimeoutSeconds, maxAttempts, backoffBaseSeconds and backoffMaxSeconds must be at least 1");
+        }
+        if (settings.backoffMaxSeconds() < settings.backoffBaseSeconds()) {
+            throw new IllegalArgumentException("backoffMaxSeconds must be at least backoffBaseSeconds");
+        }
+        if (settings.queue().equals(settings.deadLetterQueue())) {
+            throw new IllegalArgumentException("A queue cannot be its own dead-letter queue");
+        }
+        repo.saveSettings(settings);
+        return settings;
+    }
+
+    /** Depth by status from the latest snapshot — O(1), no query on the request path. */
+    public QueueStats stats(String queue) {
+        DepthSnapshot snapshot = depth;
+        if (snapshot == null) {
+            refreshStats();
+            snapshot = depth;
+        }
+        return new QueueStats(queue, snapshot.counts().getOrDefault(queue, Map.of()), snapshot.asOf(),
+            Duration.between(snapshot.asOf(), Instant.now()).toMillis(), STATS_REFRESH_MS);
+    }
+
+    /**
+     * Browse a queue a page at a time, oldest first.
+     *
+     * @param cursor {@code nextCursor} of the previous page, or null for the first page
+     */
+    public QueuePage list(String queue, String status, String cursor, int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        PageKey after = cursor != null && !cursor.isBlank() ? decodeCursor(cursor) : null;
+        List<QueueMessage> messages = repo.list(queue, status,
+            after != null ? after.createdAt() : null, after != null ? after.id() : null, limit);
+        String next = messages.size() == limit ? encodeCursor(messages.get(messages.size() - 1)) : null;
+        return new QueuePage(messages, next);
+    }
+
+    /**
+     * Stream every matching message to {@code sink}, oldest first. Walks the queue in keyset
+     * pages, so memory stays flat and no connection or transaction is held between pages.
+     *
+     * @return number of exported messages
+     */
+    public long export(String queue, String status, Consumer<QueueMessage> sink) {
+        long exported = 0;
+        QueueMessage last = null;
+        while (true) {
+            List<QueueMessage> page = repo.list(queue, status,
+                last != null ? last.createdAt() : null, last != null ? last.id() : null, MAX_PAGE_SIZE);
+            page.forEach(sink);
+            exported += page.size();
+            if (page.size() < MAX_PAGE_SIZE) {
+                return exported;
+            }
+            last = page.get(page.size() - 1);
+        }
+    }
+
+    /** Fold pending depth deltas, then replace the snapshot with the counters of every queue. */
+    @Scheduled(fixedDelay = STATS_REFRESH_MS)
+    public void refreshStats() {
+        repo.foldDepthDeltas();
+        Instant asOf = Instant.now();
+        depth = new DepthSnapshot(repo.depthByQueue(), asOf);
     }
 
-    public boolean complete(Long messageId) {
-        return repo.complete(messageId);
+    /**
+     * Write buffered acks, up to {@value #MAX_ACK_BATCH} per statement, unless another thread
+     * is already flushing: that flush picks them up. Re-checking the buffer after letting go
+     * of the flag means an ack added just before then is never stranded.
+     */
+    private void flushPendingAcks() {
+        while (!pendingAcks.isEmpty() && flushingAcks.compareAndSet(false, true)) {
+            try {
+                List<PendingAck> batch;
+                while (!(batch = pollAcks()).isEmpty()) {
+                    try {
+                        Set<Long> completed = new HashSet<>(repo.completeBatch(batch.stream().map(PendingAck::ack).toList()));
+                        batch.forEach(a -> a.result().complete(completed.contains(a.ack().messageId())));
+                    } catch (RuntimeException e) {
+                        log.warn("Queue: flushing {} acks failed: {}", batch.size(), e.getMessage());
+                        batch.forEach(a -> a.result().completeExceptionally(e));
+                    }
+                }
+            } finally {
+                flushingAcks.set(false);
+            }
+        }
+    }
+
+    private List<PendingAck> pollAcks() {
+        List<PendingAck> batch = new ArrayList<>();
+        PendingAck ack;
+        while (batch.size() < MAX_ACK_BATCH && (ack = pendingAcks.poll()) != null) {
+            batch.add(ack);
+        }
+        return batch;
     }
 
-    public boolean fail(Long messageId) {
-        return repo.fail(messageId);
+    /** NOTIFY handler: one waiter per NOTIFY; a null payload (listener reconnected) wakes one per queue. */
+    private void wakeWaiters(String queue) {
+        if (queue == null) {
+            List.copyOf(waiters.keySet()).forEach(this::wakeOne);
+            return;
+        }
+        wakeOne(queue);
     }
 
-    public List<Map<String, Object>> stats(String queue) {
-        return repo.stats(queue);
+    /** Unpark the oldest waiter of {@code queue} and run its claim on the long-poll executor. */
+    private void wakeOne(String queue) {
+        LongPoll[] next = new LongPoll[1];
+        waiters.computeIfPresent(queue, (q, parked) -> {
+            Iterator<LongPoll> it = parked.iterator();
+            next[0] = it.next();
+            it.remove();
+            return parked.isEmpty() ? null : parked;
+        });
+        if (next[0] != null) {
+            wakeups.execute(next[0]);
+        }
     }
 
-    public List<QueueMessage> list(String queue, String status, int limit) {
-        return repo.list(queue, status, limit);
+    private void park(LongPoll poll) {
+        waiters.compute(poll.queue, (q, parked) -> {
+            Set<LongPoll> set = parked != null ? parked : new LinkedHashSet<>();
+            set.add(poll);
+            return set;
+        });
     }
 
-    /** Periodically requeue messages stuck in 'processing' (visibility timeout expired). */
+    private void unpark(LongPoll poll) {
+        waiters.computeIfPresent(poll.queue, (q, parked) -> {
+            parked.remove(poll);
+            return parked.isEmpty() ? null : parked;
+        });
+    }
+
+    private record PendingAck(QueueAck ack, CompletableFuture<Boolean> result) {}
+
+    /** Keyset position: the {@code (created_at, id)} of the last row of a page. */
+    private record PageKey(Instant createdAt, Long id) {}
+
+    private record DepthSnapshot(Map<String, Map<String, Long>> counts, Instant asOf) {}
+
+    /** One parked long-poll request; each run is a single claim attempt. */
+    private final class LongPoll implements Runnable {
+
+        private final String queue;
+        private final int max;
+        private final CompletableFuture<List<QueueMessage>> result;
+
+        LongPoll(String queue, int max, CompletableFuture<List<QueueMessage>> result) {
+            this.queue = queue;
+            this.max = max;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                // Woken after the wait expired: pass the wake on instead of swallowing it
+                wakeOne(queue);
+                return;
+            }
+            // Park before polling so a NOTIFY racing with an empty poll still wakes us.
+            park(this);
+            List<QueueMessage> messages;
+            try {
+                messages = repo.receiveBatch(queue, max, VISIBILITY_TIMEOUT_SECONDS);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            if (messages.isEmpty()) {
+                return;
+            }
+            unpark(this);
+            if (!result.complete(messages)) {
+                // The wait expired mid-claim: nobody will see these messages, so hand them back
+                // at once (attempt not counted) instead of leaving them leased until the timeout.
+                // The release NOTIFYs, which wakes the next waiter.
+                int released = repo.release(messages.stream().map(m -> new QueueAck(m.id(), m.receipt())).toList());
+                log.debug("Queue '{}': long poll expired while claiming, released {} messages", queue, released);
+            } else if (messages.size() == max) {
+                // A full batch means more may be waiting: relay the wake to the next waiter
+                wakeOne(queue);
+            }
+        }
+    }
+
+    /**
+     * Periodically recover messages whose lease lapsed (visibility timeout expired).
+     * One sweep covers every queue. A lapsed lease counts as a failed attempt, so
+     * messages that keep crashing workers are eventually dead-lettered. Counts are
+     * published as {@code queue.requeued}, {@code queue.dead_lettered} and {@code queue.failed},
+     * tagged by the queue the lease lapsed in.
+     */
     @Scheduled(fixedRate = 10000) // every 10 seconds
     public void requeueStaleMessages() {
-        // We check across all queues by requeuing for common queue names
-        int requeued = repo.requeueStale("default", VISIBILITY_TIMEOUT_SECONDS);
-        if (requeued > 0) {
-            log.info("Queue: requeued {} stale messages (visibility timeout expired)", requeued);
+        for (Map<String, Object> row : repo.requeueStale(defaultSettings(null))) {
+            String queue = (String) row.get("queue");
+            String status = (String) row.get("status");
+            long count = ((Number) row.get("count")).longValue();
+            String metric = switch (status) {
+                case "scheduled" -> "queue.requeued";
+                case "pending" -> "queue.dead_lettered"; // moved into the DLQ
+                default -> "queue.failed";               // failed again inside a DLQ: terminal
+            };
+            meters.counter(metric, "queue", queue).increment(count);
+            log.info("Queue '{}': {} stale messages -> {} (lease expired)", queue, count, status);
+        }
+    }
+
+    /** Move retries whose backoff has elapsed back into the dequeue index. */
+    @Scheduled(fixedDelay = 1000) // every second
+    public void promoteScheduledMessages() {
+        Map<String, Integer> promoted = repo.promoteScheduled(PROMOTE_BATCH_SIZE);
+        promoted.forEach((queue, count) -> log.debug("Queue '{}': {} scheduled messages are due", queue, count));
+    }
+
+    /** Same tag as {@link #requeueStaleMessages}: the queue the message failed in, not its DLQ. */
+    private void countDeadLettered(Map<String, Object> outcome) {
+        if ("pending".equals(outcome.get("status"))) {
+            meters.counter("queue.dead_lettered", "queue", (String) outcome.get("source_queue")).increment();
+        }
+    }
+
+    /** Opaque to clients: base64url of {@code <created_at>|<id>} of the last row seen. */
+    private static String encodeCursor(QueueMessage last) {
+        String key = last.createdAt() + "|" + last.id();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static PageKey decodeCursor(String cursor) {
+        try {
+            String key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = key.indexOf('|');
+            return new PageKey(Instant.parse(key.substring(0, sep)), Long.parseLong(key.substring(sep + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor");
         }
     }
+
+    private static void validateAckBatch(List<QueueAck> acks) {
+        if (acks.isEmpty() || acks.size() > MAX_ACK_BATCH) {
+            throw new IllegalArgumentException("Batch must contain between 1 and " + MAX_ACK_BATCH + " messages");
+        }
+        acks.forEach(a -> {
+            if (a.messageId() == null) {
+                throw new IllegalArgumentException("messageId is required");
+            }
+            requireReceipt(a.receipt());
+        });
+    }
+
+    private static UUID requireReceipt(UUID receipt) {
+        if (receipt == null) {
+            throw new IllegalArgumentException("receipt is required: pass the receipt returned when the message was claimed");
+        }
+        return receipt;
+    }
+
+    static void validatePriority(int priority) {
+        if (priority < 0 || priority > MAX_PRIORITY) {
+            throw new IllegalArgumentException("priority must be between 0 and " + MAX_PRIORITY);
+        }
+    }
+
+    private static QueueSettings defaultSettings(String queue) {
+        return new QueueSettings(queue, VISIBILITY_TIMEOUT_SECONDS, MAX_ATTEMPTS,
+            BACKOFF_BASE_SECONDS, BACKOFF_MAX_SECONDS, null);
+    }
 }
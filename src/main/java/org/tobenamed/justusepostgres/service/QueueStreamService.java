@@ -0,0 +1,317 @@
+package org.tobenamed.justusepostgres.service;
+
+import org.tobenamed.justusepostgres.model.QueueAck;
+import org.tobenamed.justusepostgres.model.QueueMessage;
+import org.tobenamed.justusepostgres.repository.QueueRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streaming consumers over Server-Sent Events (like a Kafka fetch session or AMQP basic.consume).
+ *
+ * <h3>Credit-based flow control</h3>
+ * A stream opens with N credits; every pushed message spends one. Acks sent to the companion
+ * ack endpoint complete/fail messages and return their credits, so the server never pushes
+ * more than N unacknowledged messages (like AMQP basic.qos prefetch). Acks name message ids
+ * only: the stream remembers the receipt of every claim it pushed and acks with that, so
+ * ids it never delivered are ignored. Only ids the stream delivered and still holds return a
+ * credit, so repeating an ack or naming foreign ids cannot inflate the window.
+ * <p>
+ * A message whose lease lapses before it is acked goes back to the queue, so the stream
+ * forgets it and returns its credit; a later ack for it is ignored. Otherwise a client that
+ * drops messages would slowly run out of credits. Leases extended by heartbeats are checked
+ * against the database before a delivery is given up.
+ *
+ * <h3>Wake-ups</h3>
+ * Messages are claimed in batches of up to the available credits, when the stream opens,
+ * when credits come back, and when a NOTIFY for the queue arrives. An idle stream issues
+ * no queries.
+ * <p>
+ * When a stream closes (client gone, write failed), every message it claimed and still holds,
+ * sent or not, is released straight back to the queue without counting an attempt. Otherwise
+ * each disconnect would cost its messages a retry and flaky clients would dead-letter them.
+ */
+@Service
+public class QueueStreamService {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueStreamService.class);
+    private static final int MAX_CREDITS = 1000;
+    private static final int PUMP_THREADS = 4;
+
+    private final QueueService queues;
+    private final Map<String, Set<Stream>> streamsByQueue = new ConcurrentHashMap<>();
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+    private final ExecutorService pumps;
+
+    public QueueStreamService(QueueService queues, NotificationListener listener) {
+        this.queues = queues;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pumps = Executors.newFixedThreadPool(PUMP_THREADS, r -> {
+            Thread t = new Thread(r, "queue-stream-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        listener.subscribe(QueueRepository.NOTIFY_CHANNEL, this::wake);
+    }
+
+    /** Open a stream; the first event ({@code open}) carries the stream id used for acks. */
+    public SseEmitter open(String queue, int credits) {
+        if (credits < 1 || credits > MAX_CREDITS) {
+            throw new IllegalArgumentException("credits must be between 1 and " + MAX_CREDITS);
+        }
+        Stream stream = new Stream(UUID.randomUUID().toString(), queue, credits);
+        stream.emitter.onCompletion(stream::close);
+        stream.emitter.onTimeout(stream::close);
+        stream.emitter.onError(e -> stream.close());
+        streams.put(stream.id, stream);
+        streamsByQueue.computeIfAbsent(queue, q -> ConcurrentHashMap.newKeySet()).add(stream);
+        try {
+            stream.emitter.send(SseEmitter.event().name("open")
+                .data(Map.of("streamId", stream.id, "queue", queue, "credits", credits), MediaType.APPLICATION_JSON));
+        } catch (IOException e) {
+            stream.close();
+            return stream.emitter;
+        }
+        stream.signal();
+        log.info("Queue '{}': stream {} opened with {} credits", queue, stream.id, credits);
+        return stream.emitter;
+    }
+
+    /**
+     * Acknowledge streamed messages. Every delivered message that was completed or failed
+     * returns one credit, plus {@code extraCredits} to widen the window. A delivered message
+     * whose ack no longer applies (its lease lapsed and it was re-claimed) has left the stream
+     * all the same, so its credit is reclaimed rather than leaked.
+     *
+     * @return the stream's credits after the ack, or empty if the stream is gone
+     */
+    public Optional<Integer> ack(String streamId, List<Long> completed, List<Long> failed, int extraCredits) {
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            return Optional.empty();
+        }
+        // Clients ack by id; the stream supplies the receipt of the claim it delivered
+        List<QueueAck> completedAcks = stream.take(completed);
+        List<QueueAck> failedAcks = stream.take(failed);
+        int acked = 0;
+        if (!completedAcks.isEmpty()) {
+            acked += (int) queues.completeBatch(completedAcks).values().stream().filter(done -> done).count();
+        }
+        if (!failedAcks.isEmpty()) {
+            acked += (int) queues.failBatch(failedAcks).values().stream().filter(Optional::isPresent).count();
+        }
+        int lapsed = completedAcks.size() + failedAcks.size() - acked;
+        if (lapsed > 0) {
+            log.debug("Queue '{}': stream {} acked {} messages after their lease lapsed", stream.queue, streamId, lapsed);
+        }
+        return Optional.of(stream.returnCredits(acked + lapsed + Math.max(0, extraCredits)));
+    }
+
+    /**
+     * Return the credits of streamed messages whose lease lapsed unacked; the lease sweep
+     * hands those messages to the next consumer, so this stream can no longer ack them.
+     * Only deliveries past their known deadline are checked, one query per such stream.
+     */
+    @Scheduled(fixedRate = 5000) // every 5 seconds
+    public void reclaimExpiredCredits() {
+        Instant now = Instant.now();
+        for (Stream stream : streams.values()) {
+            int expired = stream.dropExpired(now);
+            if (expired > 0) {
+                log.debug("Queue '{}': stream {} reclaimed {} credits from lapsed leases", stream.queue, stream.id, expired);
+                stream.returnCredits(expired);
+            }
+        }
+    }
+
+    /** Comment-only heartbeat so dead clients are detected and proxies keep the connection. */
+    @Scheduled(fixedRate = 15000) // every 15 seconds
+    public void heartbeat() {
+        for (Stream stream : streams.values()) {
+            try {
+                stream.emitter.send(SseEmitter.event().comment("keep-alive"));
+            } catch (IOException | IllegalStateException e) {
+                stream.close();
+            }
+        }
+    }
+
+    /** NOTIFY handler: a null payload (listener reconnected) wakes every stream. */
+    private void wake(String queue) {
+        if (queue == null) {
+            streams.values().forEach(Stream::signal);
+            return;
+        }
+        Set<Stream> set = streamsByQueue.get(queue);
+        if (set != null) {
+            set.forEach(Stream::signal);
+        }
+    }
+
+    /** Receipt and lease deadline of a pushed message. */
+    private record Delivery(UUID receipt, Instant leaseUntil) {}
+
+    /** One open SSE connection and its credit window. */
+    private final class Stream {
+
+        private final String id;
+        private final String queue;
+        private final SseEmitter emitter = new SseEmitter(0L); // no timeout; heartbeats detect dead clients
+        private final AtomicInteger credits;
+        /** Claims of the messages pushed and not yet acked, by message id. */
+        private final Map<Long, Delivery> delivered = new ConcurrentHashMap<>();
+        private final AtomicBoolean pumping = new AtomicBoolean();
+        private final AtomicBoolean dirty = new AtomicBoolean();
+        private volatile boolean open = true;
+
+        Stream(String id, String queue, int credits) {
+            this.id = id;
+            this.queue = queue;
+            this.credits = new AtomicInteger(credits);
+        }
+
+        /** Request a pump; concurrent signals collapse into at most one extra run. */
+        void signal() {
+            dirty.set(true);
+            if (open && pumping.compareAndSet(false, true)) {
+                pumps.execute(this::pump);
+            }
+        }
+
+        private void pump() {
+            try {
+                while (open && dirty.getAndSet(false)) {
+                    int available;
+                    while (open && (available = credits.get()) > 0) {
+                        List<QueueMessage> messages = queues.receiveBatch(queue, available);
+                        if (messages.isEmpty()) {
+                            break;
+                        }
+                        credits.addAndGet(-messages.size());
+                        // Track the whole batch first, so a failed write releases the unsent rest too
+                        for (QueueMessage message : messages) {
+                            delivered.put(message.id(), new Delivery(message.receipt(), message.leaseUntil()));
+                        }
+                        for (QueueMessage message : messages) {
+                            emitter.send(SseEmitter.event().id(String.valueOf(message.id())).name("message")
+                                .data(message, MediaType.APPLICATION_JSON));
+                        }
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                close();
+            } catch (RuntimeException e) {
+                log.warn("Queue '{}': stream {} pump failed: {}", queue, id, e.getMessage());
+            } finally {
+                pumping.set(false);
+                if (!open) {
+                    releaseUnacked(); // claimed while the stream was closing
+                } else if (dirty.get()) {
+                    signal();
+                }
+            }
+        }
+
+        /** Acks for the given ids that this stream delivered; unknown ids are dropped. */
+        List<QueueAck> take(List<Long> ids) {
+            List<QueueAck> acks = new ArrayList<>(ids.size());
+            for (Long id : ids) {
+                Delivery delivery = delivered.remove(id);
+                if (delivery != null) {
+                    acks.add(new QueueAck(id, delivery.receipt()));
+                }
+            }
+            return acks;
+        }
+
+        /**
+         * Forget deliveries whose lease lapsed before {@code now}; returns how many. A delivery
+         * past its known deadline is kept, with the new deadline, if a heartbeat extended it.
+         */
+        int dropExpired(Instant now) {
+            Map<Long, Delivery> overdue = new HashMap<>();
+            delivered.forEach((id, d) -> {
+                if (d.leaseUntil().isBefore(now)) {
+                    overdue.put(id, d);
+                }
+            });
+            if (overdue.isEmpty()) {
+                return 0;
+            }
+            Map<Long, Instant> extended = queues.activeLeases(overdue.entrySet().stream()
+                .map(e -> new QueueAck(e.getKey(), e.getValue().receipt())).toList());
+            int dropped = 0;
+            for (Map.Entry<Long, Delivery> e : overdue.entrySet()) {
+                Instant until = extended.get(e.getKey());
+                if (until != null) {
+                    delivered.replace(e.getKey(), e.getValue(), new Delivery(e.getValue().receipt(), until));
+                } else if (delivered.remove(e.getKey(), e.getValue())) {
+                    // Conditional remove: an ack that took the delivery meanwhile keeps its credit
+                    dropped++;
+                }
+            }
+            return dropped;
+        }
+
+        /** Add credits (capped at {@code MAX_CREDITS}) and pump; returns the new balance. */
+        int returnCredits(int returned) {
+            int balance = credits.accumulateAndGet(returned, (c, n) -> Math.min(MAX_CREDITS, c + n));
+            signal();
+            return balance;
+        }
+
+        void close() {
+            if (!open) {
+                return;
+            }
+            open = false;
+            streams.remove(id);
+            Set<Stream> set = streamsByQueue.get(queue);
+            if (set != null) {
+                set.remove(this);
+            }
+            emitter.complete();
+            releaseUnacked();
+            log.info("Queue '{}': stream {} closed", queue, id);
+        }
+
+        /** Give every claim the stream still holds back to the queue. */
+        private void releaseUnacked() {
+            List<QueueAck> unacked = new ArrayList<>();
+            delivered.forEach((messageId, d) -> {
+                if (delivered.remove(messageId, d)) {
+                    unacked.add(new QueueAck(messageId, d.receipt()));
+                }
+            });
+            if (unacked.isEmpty()) {
+                return;
+            }
+            try {
+                int released = queues.release(unacked);
+                log.debug("Queue '{}': stream {} released {} unacked messages", queue, id, released);
+            } catch (RuntimeException e) {
+                // They come back when their lease lapses, as a failed attempt
+                log.warn("Queue '{}': stream {} could not release {} messages: {}", queue, id, unacked.size(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.tobenamed.justusepostgres.repository;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.images.builder.ImageFromDockerfile;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Counter and TTL statements of {@link CacheRepository} against the project's own Postgres
+ * image (same extensions and {@code init.sql} as {@code docker compose}).
+ *
+ * Expiry is simulated by moving {@code expires_at} into the past instead of sleeping.
+ */
+@Testcontainers
+class CacheRepositoryTest {
+
+    @Container
+    static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>(
+        DockerImageName.parse(new ImageFromDockerfile("just-use-postgres-test", false)
+                .withFileFromPath(".", Path.of("docker"))
+                .withDockerfilePath("Dockerfile.postgres")
+                .get())
+            .asCompatibleSubstituteFor("postgres"));
+
+    private static JdbcTemplate jdbc;
+    private static CacheRepository repo;
+
+    private String key;
+
+    @BeforeAll
+    static void connect() {
+        jdbc = new JdbcTemplate(new DriverManagerDataSource(
+            POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword()));
+        repo = new CacheRepository(jdbc);
+    }
+
+    @BeforeEach
+    void freshKey() {
+        key = "test:" + UUID.randomUUID();
+    }
+
+    @Test
+    void incrStartsAMissingKeyAtDelta() {
+        assertThat(repo.incrBy(key, 5, Duration.ofSeconds(60))).isEqualTo(5);
+        assertThat(repo.incrBy(key, -2, null)).isEqualTo(3);
+    }
+
+    @Test
+    void incrRestartsAnExpiredBinaryEntry() {
+        repo.setBytes(key, new byte[] {1, 2, 3}, "none", Duration.ofSeconds(60));
+        expire(key);
+
+        assertThat(repo.incrBy(key, 5, Duration.ofSeconds(60))).isEqualTo(5);
+
+        Map<String, Object> row = jdbc.queryForMap(
+            "SELECT value::text AS value, value_bytes, codec, load_ms FROM cache_entries WHERE key = ?", key);
+        assertThat(row.get("value")).isEqualTo("5");
+        assertThat(row.get("value_bytes")).isNull();
+        assertThat(row.get("codec")).isNull();
+        assertThat(row.get("load_ms")).isNull();
+    }
+
+    private void expire(String key) {
+        jdbc.update("UPDATE cache_entries SET expires_at = NOW() - interval '1 second' WHERE key = ?", key);
+    }
+}
@@ -0,0 +1,284 @@
+package org.tobenamed.justusepostgres.repository;
+
+import org.tobenamed.justusepostgres.model.QueueAck;
+import org.tobenamed.justusepostgres.model.QueueMessage;
+import org.tobenamed.justusepostgres.model.QueueSettings;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.images.builder.ImageFromDockerfile;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Lease, receipt, retry and FIFO-group state machine of {@link QueueRepository} against the project's own
+ * Postgres image (same extensions and {@code init.sql} as {@code docker compose}).
+ *
+ * Lease lapses are simulated by moving {@code lease_until} / {@code visible_at} into the
+ * past instead of sleeping, so the tests run in milliseconds.
+ */
+@Testcontainers
+class QueueRepositoryTest {
+
+    @Container
+    static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>(
+        DockerImageName.parse(new ImageFromDockerfile("just-use-postgres-test", false)
+                .withFileFromPath(".", Path.of("docker"))
+                .withDockerfilePath("Dockerfile.postgres")
+                .get())
+            .asCompatibleSubstituteFor("postgres"));
+
+    private static final QueueSettings DEFAULTS = new QueueSettings(null, 30, 5, 5, 900, null);
+
+    private static JdbcTemplate jdbc;
+    private static QueueRepository repo;
+
+    private String queue;
+
+    @BeforeAll
+    static void connect() {
+        jdbc = new JdbcTemplate(new DriverManagerDataSource(
+            POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword()));
+        repo = new QueueRepository(jdbc);
+    }
+
+    @BeforeEach
+    void freshQueue() {
+        queue = "test-" + UUID.randomUUID();
+    }
+
+    @Test
+    void claimLeasesTheMessageUnderANewReceipt() {
+        Long id = send();
+
+        QueueMessage claimed = claimOne();
+
+        assertThat(claimed.id()).isEqualTo(id);
+        assertThat(claimed.status()).isEqualTo("processing");
+        assertThat(claimed.receipt()).isNotNull();
+        assertThat(claimed.leaseUntil()).isNotNull();
+        assertThat(repo.receiveBatch(queue, 10, 30)).isEmpty();
+    }
+
+    @Test
+    void currentReceiptCanExtendAndComplete() {
+        send();
+        QueueMessage claimed = claimOne();
+
+        assertThat(repo.extendLease(claimed.id(), claimed.receipt(), 120)).isPresent();
+        assertThat(repo.complete(claimed.id(), claimed.receipt())).isTrue();
+        assertThat(status(claimed.id())).isEqualTo("completed");
+    }
+
+    @Test
+    void unknownReceiptIsRejected() {
+        send();
+        QueueMessage claimed = claimOne();
+        UUID forged = UUID.randomUUID();
+
+        assertThat(repo.extendLease(claimed.id(), forged, 120)).isEmpty();
+        assertThat(repo.complete(claimed.id(), forged)).isFalse();
+        assertThat(repo.fail(claimed.id(), forged, DEFAULTS)).isEmpty();
+        assertThat(status(claimed.id())).isEqualTo("processing");
+    }
+
+    @Test
+    void lapsedLeaseCanStillBeCompletedUntilReclaimed() {
+        send();
+        QueueMessage claimed = claimOne();
+        lapseLease(claimed.id());
+
+        assertThat(repo.extendLease(claimed.id(), claimed.receipt(), 120)).isEmpty();
+        assertThat(repo.complete(claimed.id(), claimed.receipt())).isTrue();
+    }
+
+    @Test
+    void staleWorkerCannotTouchTheNextClaim() {
+        send();
+        QueueMessage workerA = claimOne();
+
+        // A's lease lapses, the sweep reschedules the message, and worker B claims it again
+        lapseLease(workerA.id());
+        repo.requeueStale(DEFAULTS);
+        assertThat(status(workerA.id())).isEqualTo("scheduled");
+        makeDue(workerA.id());
+        repo.promoteScheduled(1000);
+        QueueMessage workerB = claimOne();
+
+        assertThat(workerB.id()).isEqualTo(workerA.id());
+        assertThat(workerB.receipt()).isNotEqualTo(workerA.receipt());
+        assertThat(workerB.attempts()).isEqualTo(2);
+
+        // Every late call from A is fenced off by its stale receipt
+        QueueAck staleAck = new QueueAck(workerA.id(), workerA.receipt());
+        assertThat(repo.extendLease(workerA.id(), workerA.receipt(), 120)).isEmpty();
+        assertThat(repo.complete(workerA.id(), workerA.receipt())).isFalse();
+        assertThat(repo.fail(workerA.id(), workerA.receipt(), DEFAULTS)).isEmpty();
+        assertThat(repo.completeBatch(List.of(staleAck))).isEmpty();
+        assertThat(repo.failBatch(List.of(staleAck), DEFAULTS)).isEmpty();
+        assertThat(status(workerB.id())).isEqualTo("processing");
+
+        // B's outcome is the one that sticks
+        assertThat(repo.complete(workerB.id(), workerB.receipt())).isTrue();
+        assertThat(status(workerB.id())).isEqualTo("completed");
+    }
+
+    @Test
+    void batchAckChecksEachReceipt() {
+        send();
+        send();
+        List<QueueMessage> claimed = repo.receiveBatch(queue, 2, 30);
+        assertThat(claimed).hasSize(2);
+        QueueMessage first = claimed.get(0);
+        QueueMessage second = claimed.get(1);
+
+        List<Long> completed = repo.completeBatch(List.of(
+            new QueueAck(first.id(), first.receipt()),
+            new QueueAck(second.id(), UUID.randomUUID())));
+
+        assertThat(completed).containsExactly(first.id());
+        assertThat(status(second.id())).isEqualTo("processing");
+    }
+
+    @Test
+    void failWithCurrentReceiptSchedulesARetry() {
+        send();
+        QueueMessage claimed = claimOne();
+
+        assertThat(repo.fail(claimed.id(), claimed.receipt(), DEFAULTS))
+            .hasValueSatisfying(row -> assertThat(row.get("status")).isEqualTo("scheduled"));
+        // The receipt dies with the claim
+        assertThat(repo.complete(claimed.id(), claimed.receipt())).isFalse();
+    }
+
+    @Test
+    void lastFailedAttemptMovesTheMessageToTheDeadLetterQueue() {
+        send();
+        QueueMessage claimed = claimOne();
+        QueueSettings oneAttempt = new QueueSettings(null, 30, 1, 5, 900, null);
+
+        assertThat(repo.fail(claimed.id(), claimed.receipt(), oneAttempt)).hasValueSatisfying(row -> {
+            assertThat(row.get("status")).isEqualTo("pending");
+            assertThat(row.get("queue")).isEqualTo(queue + ".dlq");
+            assertThat(row.get("source_queue")).isEqualTo(queue);
+        });
+    }
+
+    @Test
+    void groupHandsOutOneMessageAtATimeInSendOrder() {
+        Long first = repo.send(queue, "{}", 0, null, "g");
+        Long second = repo.send(queue, "{}", 0, null, "g");
+        Long ungrouped = send();
+
+        List<QueueMessage> claimed = repo.receiveBatch(queue, 10, 30);
+        assertThat(claimed).extracting(QueueMessage::id).containsExactly(first, ungrouped);
+
+        // A retry keeps the head, so the second message still waits
+        QueueMessage head = claimed.get(0);
+        repo.fail(head.id(), head.receipt(), DEFAULTS);
+        assertThat(repo.receiveBatch(queue, 10, 30)).isEmpty();
+
+        makeDue(first);
+        repo.promoteScheduled(1000);
+        QueueMessage retried = claimOne();
+        assertThat(retried.id()).isEqualTo(first);
+        repo.complete(retried.id(), retried.receipt());
+        assertThat(claimOne().id()).isEqualTo(second);
+    }
+
+    @Test
+    void deadLetteringTheHeadUnblocksItsGroup() {
+        Long first = repo.send(queue, "{}", 0, null, "g");
+        Long second = repo.send(queue, "{}", 0, null, "g");
+        QueueMessage head = claimOne();
+        QueueSettings oneAttempt = new QueueSettings(null, 30, 1, 5, 900, null);
+
+        repo.fail(head.id(), head.receipt(), oneAttempt);
+
+        assertThat(claimOne().id()).isEqualTo(second);
+        assertThat(repo.receiveBatch(queue + ".dlq", 10, 30))
+            .extracting(QueueMessage::id).containsExactly(first);
+    }
+
+    @Test
+    void releaseReturnsTheClaimWithoutCountingTheAttempt() {
+        send();
+        QueueMessage claimed = claimOne();
+
+        assertThat(repo.release(List.of(new QueueAck(claimed.id(), UUID.randomUUID())))).isZero();
+        assertThat(repo.release(List.of(new QueueAck(claimed.id(), claimed.receipt())))).isEqualTo(1);
+        assertThat(status(claimed.id())).isEqualTo("pending");
+
+        QueueMessage again = claimOne();
+        assertThat(again.attempts()).isEqualTo(1);
+        assertThat(repo.complete(claimed.id(), claimed.receipt())).isFalse();
+    }
+
+    @Test
+    void depthCountersFollowEveryTransition() {
+        send();
+        send();
+        QueueMessage claimed = claimOne();
+        assertThat(repo.depthByQueue().get(queue)).containsEntry("pending", 1L).containsEntry("processing", 1L);
+
+        repo.foldDepthDeltas();
+        assertThat(repo.depthByQueue().get(queue)).containsEntry("pending", 1L).containsEntry("processing", 1L);
+
+        repo.complete(claimed.id(), claimed.receipt());
+        jdbc.update("DELETE FROM message_queue WHERE queue = ? AND status = 'pending'", queue);
+
+        assertThat(repo.depthByQueue().get(queue)).containsOnly(Map.entry("completed", 1L));
+        repo.foldDepthDeltas();
+        assertThat(repo.depthByQueue().get(queue)).containsOnly(Map.entry("completed", 1L));
+    }
+
+    @Test
+    void archiveKeepsPriorityGroupAndDeadLetterSource() {
+        Long id = repo.send(queue, "{}", 7, null, "g");
+        QueueMessage claimed = claimOne();
+        repo.complete(claimed.id(), claimed.receipt());
+        jdbc.update("UPDATE message_queue SET processed_at = NOW() - interval '1 hour', dead_lettered_from = 'origin'"
+            + " WHERE id = ?", id);
+
+        assertThat(repo.archiveCompleted(60, 1000)).isGreaterThanOrEqualTo(1);
+
+        assertThat(jdbc.queryForMap(
+                "SELECT priority, group_key, dead_lettered_from FROM message_queue_archive WHERE id = ?", id))
+            .containsEntry("priority", (short) 7)
+            .containsEntry("group_key", "g")
+            .containsEntry("dead_lettered_from", "origin");
+    }
+
+    private Long send() {
+        return repo.send(queue, "{}", 0, null, null);
+    }
+
+    private QueueMessage claimOne() {
+        List<QueueMessage> claimed = repo.receiveBatch(queue, 1, 30);
+        assertThat(claimed).hasSize(1);
+        return claimed.get(0);
+    }
+
+    private String status(Long id) {
+        return jdbc.queryForObject("SELECT status FROM message_queue WHERE id = ?", String.class, id);
+    }
+
+    private void lapseLease(Long id) {
+        jdbc.update("UPDATE message_queue SET lease_until = NOW() - interval '1 second' WHERE id = ?", id);
+    }
+
+    private void makeDue(Long id) {
+        jdbc.update("UPDATE message_queue SET visible_at = NOW() - interval '1 second' WHERE id = ?", id);
+    }
+}